@@ -1,20 +1,14 @@
 package org.stenerud.remotefs.codec;
 
-import com.sun.org.apache.xpath.internal.operations.Bool;
 import org.stenerud.remotefs.utility.*;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.time.Instant;
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
-import java.time.temporal.ChronoField;
+import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
 import java.util.logging.Logger;
 
 /**
@@ -22,7 +16,7 @@ import java.util.logging.Logger;
  */
 public class BinaryCodec {
     private static final Logger LOG = Logger.getLogger(BinaryCodec.class.getName());
-    private static final int SMALLINT_MIN = (byte)0x89;
+    private static final int SMALLINT_MIN = (byte)0x8c;
     private static final int SMALLINT_MAX = (byte)0x74;
 
     public interface EncodedType {
@@ -49,12 +43,27 @@ public class BinaryCodec {
         int FLOAT64       = (byte)0x88;
         int FLOAT32       = (byte)0x89;
         int EMPTY         = (byte)0x8a;
+        int PACKED_ARRAY  = (byte)0x8b;
+    }
+
+    /**
+     * The element type byte that follows PACKED_ARRAY. It is followed by an element count, then the
+     * elements back to back in little endian order (booleans are packed 8 per byte, least significant bit first).
+     */
+    public interface PackedElementType {
+        int INT8    = 0x01;
+        int INT16   = 0x02;
+        int INT32   = 0x04;
+        int INT64   = 0x08;
+        int FLOAT32 = 0x14;
+        int FLOAT64 = 0x18;
+        int BOOLEAN = 0x20;
     }
 
     public static class EndOfDataException extends IOException {
     }
 
-    static class NoRoomException extends IOException {
+    public static class NoRoomException extends IOException {
         public NoRoomException() {
         }
 
@@ -63,162 +72,736 @@ public class BinaryCodec {
         }
     }
 
+    private static final long SECONDS_PER_DAY = 86400;
+    private static final long MILLISECONDS_PER_DAY = SECONDS_PER_DAY * 1000;
+    private static final long MICROSECONDS_PER_SECOND = 1000000;
+    // Days from 0000-03-01 to 1970-01-01, and the length of the 400 year Gregorian cycle.
+    private static final long EPOCH_DAY_OFFSET = 719468;
+    private static final long DAYS_PER_ERA = 146097;
+    private static final int MAX_DATE_DAYS_YEAR = (1 << 22) - 1;
+    private static final int DATE_LENGTH_DAYS = 5;
+    private static final int DATE_LENGTH_SECONDS = 7;
+    private static final int DATE_LENGTH_SUBSECONDS = 9;
+
+    /**
+     * @return The number of bytes (including type code) the encoder uses for this integer.
+     */
+    static int getIntegerEncodedLength(long value) {
+        if(value >= SMALLINT_MIN && value <= SMALLINT_MAX) {
+            return 1;
+        }
+        if(value >= -0x8000 && value <= 0x7fff) {
+            return 3;
+        }
+        if(value >= -0x800000 && value <= 0x7fffff) {
+            return 4;
+        }
+        if(value >= -0x80000000 && value <= 0x7fffffff) {
+            return 5;
+        }
+        if(value >= -0x8000000000L && value <= 0x7fffffffffL) {
+            return 6;
+        }
+        if(value >= -0x800000000000L && value <= 0x7fffffffffffL) {
+            return 7;
+        }
+        if(value >= -0x80000000000000L && value <= 0x7fffffffffffffL) {
+            return 8;
+        }
+        return 9;
+    }
+
+    static boolean canEncodeAsFloat32(double value) {
+        return (float)value == value;
+    }
+
+    /**
+     * @return The date type code the encoder uses for this date.
+     */
+    static int getDateType(@Nonnull Date date) {
+        long milliseconds = date.getTime();
+        if(Math.floorMod(milliseconds, 1000) != 0) {
+            return EncodedType.DATE_MSECONDS;
+        }
+        if(Math.floorMod(milliseconds / 1000, SECONDS_PER_DAY) == 0) {
+            return EncodedType.DATE_DAYS;
+        }
+        return EncodedType.DATE_SECONDS;
+    }
+
+    /**
+     * @return The date type code the encoder uses for this instant.
+     */
+    static int getDateType(@Nonnull Instant instant) {
+        long microseconds = instant.getNano() / 1000;
+        if(microseconds == 0) {
+            if(Math.floorMod(instant.getEpochSecond(), SECONDS_PER_DAY) == 0) {
+                return EncodedType.DATE_DAYS;
+            }
+            return EncodedType.DATE_SECONDS;
+        }
+        if(microseconds % 1000 == 0) {
+            return EncodedType.DATE_MSECONDS;
+        }
+        return EncodedType.DATE_USECONDS;
+    }
+
+    /**
+     * Convert days since 1970-01-01 to the proleptic Gregorian year, month and day packed as in DATE_DAYS
+     * (year << 9 | month << 5 | day).
+     */
+    static int getDateDaysField(long epochDay) {
+        long shiftedDay = epochDay + EPOCH_DAY_OFFSET;
+        long era = Math.floorDiv(shiftedDay, DAYS_PER_ERA);
+        int dayOfEra = (int)(shiftedDay - era * DAYS_PER_ERA);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        // Months count from March, so that the leap day comes last.
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = era * 400 + yearOfEra + (month <= 2 ? 1 : 0);
+        return getDateDaysField(year, month, day);
+    }
+
+    private static int getDateDaysField(long year, int month, int day) {
+        if(year < -MAX_DATE_DAYS_YEAR - 1 || year > MAX_DATE_DAYS_YEAR) {
+            throw new IllegalArgumentException("Year is out of range: " + year);
+        }
+        if(month < 1 || month > 12) {
+            throw new IllegalArgumentException("Month is invalid: " + month);
+        }
+        if(day < 1 || day > 31) {
+            throw new IllegalArgumentException("Day is invalid: " + day);
+        }
+        return day | (month << 5) | ((int)year << 9);
+    }
+
+    /**
+     * Convert a DATE_DAYS field to days since 1970-01-01.
+     */
+    static long getEpochDay(int dateDaysField) {
+        int day = dateDaysField & 0x1f;
+        int month = (dateDaysField >> 5) & 0x0f;
+        long year = dateDaysField >> 9;
+        if(month < 1 || month > 12 || day < 1) {
+            throw new IllegalStateException("Invalid date field: " + Integer.toHexString(dateDaysField));
+        }
+        if(month <= 2) {
+            year--;
+        }
+        long era = Math.floorDiv(year, 400);
+        int yearOfEra = (int)(year - era * 400);
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * DAYS_PER_ERA + dayOfEra - EPOCH_DAY_OFFSET;
+    }
+
+    private static int getDateEncodedLength(int dateType) {
+        switch(dateType) {
+            case EncodedType.DATE_DAYS:
+                return DATE_LENGTH_DAYS;
+            case EncodedType.DATE_SECONDS:
+                return DATE_LENGTH_SECONDS;
+            default:
+                return DATE_LENGTH_SUBSECONDS;
+        }
+    }
+
+    private static int getByteArrayEncodedLength(int length) {
+        return 1 + getIntegerEncodedLength(length) + length;
+    }
+
+    /**
+     * @return The number of bytes taken up by count packed elements of the given type.
+     */
+    static long getPackedPayloadLength(int elementType, long count) {
+        switch(elementType) {
+            case PackedElementType.INT8:
+                return count;
+            case PackedElementType.INT16:
+                return count * 2;
+            case PackedElementType.INT32:
+            case PackedElementType.FLOAT32:
+                return count * 4;
+            case PackedElementType.INT64:
+            case PackedElementType.FLOAT64:
+                return count * 8;
+            case PackedElementType.BOOLEAN:
+                return (count + 7) / 8;
+            default:
+                throw new IllegalStateException("Unknown packed element type " + elementType);
+        }
+    }
+
+    private static int getPackedArrayEncodedLength(int elementType, int count) {
+        long payloadLength = getPackedPayloadLength(elementType, count);
+        if(payloadLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Packed array of " + count + " elements is too large to encode");
+        }
+        return 2 + getIntegerEncodedLength(count) + (int)payloadLength;
+    }
+
+    /**
+     * @return The narrowest packed element type that holds every integer in the range.
+     */
+    private static int getPackedIntegerType(long minValue, long maxValue) {
+        if(minValue >= Byte.MIN_VALUE && maxValue <= Byte.MAX_VALUE) {
+            return PackedElementType.INT8;
+        }
+        if(minValue >= Short.MIN_VALUE && maxValue <= Short.MAX_VALUE) {
+            return PackedElementType.INT16;
+        }
+        if(minValue >= Integer.MIN_VALUE && maxValue <= Integer.MAX_VALUE) {
+            return PackedElementType.INT32;
+        }
+        return PackedElementType.INT64;
+    }
+
+    static int getPackedIntegerType(@Nonnull long[] values) {
+        long minValue = 0;
+        long maxValue = 0;
+        for(long value: values) {
+            minValue = Math.min(minValue, value);
+            maxValue = Math.max(maxValue, value);
+        }
+        return getPackedIntegerType(minValue, maxValue);
+    }
+
+    static int getPackedIntegerType(@Nonnull int[] values) {
+        int minValue = 0;
+        int maxValue = 0;
+        for(int value: values) {
+            minValue = Math.min(minValue, value);
+            maxValue = Math.max(maxValue, value);
+        }
+        return getPackedIntegerType(minValue, maxValue);
+    }
+
+    static int getPackedFloatType(@Nonnull double[] values) {
+        for(double value: values) {
+            if(!canEncodeAsFloat32(value)) {
+                return PackedElementType.FLOAT64;
+            }
+        }
+        return PackedElementType.FLOAT32;
+    }
+
+    /**
+     * Encodes values of a particular class (and its subclasses).
+     * Only write() is required; the default sizeOf() measures by encoding into a scratch buffer.
+     */
+    public interface TypeCodec<T> {
+        int write(@Nonnull Encoder encoder, @Nonnull T value) throws NoRoomException;
+
+        default int sizeOf(@Nonnull T value) {
+            Encoder encoder = Encoder.newGrowing(64);
+            try {
+                write(encoder, value);
+            } catch(NoRoomException e) {
+                throw new IllegalStateException("Growing encoder ran out of room", e);
+            }
+            return encoder.currentOffset - encoder.buffer.startOffset;
+        }
+    }
+
+    private interface Sizer<T> {
+        int sizeOf(@Nonnull T value);
+    }
+
+    private static <T> TypeCodec<T> newTypeCodec(@Nonnull TypeCodec<T> writer, @Nonnull Sizer<T> sizer) {
+        return new TypeCodec<T>() {
+            @Override
+            public int write(@Nonnull Encoder encoder, @Nonnull T value) throws NoRoomException {
+                return writer.write(encoder, value);
+            }
+
+            @Override
+            public int sizeOf(@Nonnull T value) {
+                return sizer.sizeOf(value);
+            }
+        };
+    }
+
+    private static final TypeCodec<Number> INTEGER_CODEC = newTypeCodec(
+            (encoder, value) -> encoder.writeInteger(value.longValue()),
+            value -> getIntegerEncodedLength(value.longValue()));
+
+    private static final TypeCodec<List> LIST_CODEC = newTypeCodec((encoder, value) -> encoder.writeList(value), value -> {
+        int length = 2;
+        for(Object o: (List<?>)value) {
+            length += sizeOf(o);
+        }
+        return length;
+    });
+    private static final TypeCodec<Map> MAP_CODEC = newTypeCodec((encoder, value) -> encoder.writeMap(value), value -> {
+        int length = 2;
+        for(Map.Entry<?, ?> entry: ((Map<?, ?>)value).entrySet()) {
+            length += sizeOf(entry.getKey());
+            length += sizeOf(entry.getValue());
+        }
+        return length;
+    });
+
+    private static final Object TYPE_CODECS_LOCK = new Object();
+    // Registration order matters when looking up by supertype, so both are replaced together on registration.
+    private static volatile Map<Class<?>, TypeCodec<?>> registeredTypeCodecs = Collections.emptyMap();
+    private static volatile ClassValue<TypeCodec<?>> typeCodecs = newTypeCodecLookup(registeredTypeCodecs);
+
+    static {
+        registerTypeCodec(Boolean.class, newTypeCodec((encoder, value) -> encoder.writeBoolean(value), value -> 1));
+        registerTypeCodec(Byte.class, INTEGER_CODEC);
+        registerTypeCodec(Short.class, INTEGER_CODEC);
+        registerTypeCodec(Integer.class, INTEGER_CODEC);
+        registerTypeCodec(Long.class, INTEGER_CODEC);
+        registerTypeCodec(Float.class, newTypeCodec((encoder, value) -> encoder.writeFloat32(value), value -> 5));
+        registerTypeCodec(Double.class, newTypeCodec((encoder, value) -> encoder.writeFloat(value),
+                value -> canEncodeAsFloat32(value) ? 5 : 9));
+        registerTypeCodec(Int128Holder.class, newTypeCodec((encoder, value) -> encoder.writeDecimal128(value), value -> 17));
+        registerTypeCodec(byte[].class, newTypeCodec((encoder, value) -> encoder.writeBytes(value),
+                value -> getByteArrayEncodedLength(value.length)));
+        registerTypeCodec(BinaryBuffer.class, newTypeCodec((encoder, value) -> encoder.writeBytes(value),
+                value -> getByteArrayEncodedLength(value.length)));
+        registerTypeCodec(String.class, newTypeCodec((encoder, value) -> encoder.writeString(value),
+                value -> getByteArrayEncodedLength(Utf8Tool.getEncodedLength(value))));
+        registerTypeCodec(Date.class, newTypeCodec((encoder, value) -> encoder.writeDate(value),
+                value -> getDateEncodedLength(getDateType(value))));
+        registerTypeCodec(Instant.class, newTypeCodec((encoder, value) -> encoder.writeDate(value),
+                value -> getDateEncodedLength(getDateType(value))));
+        registerTypeCodec(LocalDate.class, newTypeCodec((encoder, value) -> encoder.writeDate(value),
+                value -> DATE_LENGTH_DAYS));
+        registerTypeCodec(long[].class, newTypeCodec((encoder, value) -> encoder.writePackedArray(value),
+                value -> getPackedArrayEncodedLength(getPackedIntegerType(value), value.length)));
+        registerTypeCodec(int[].class, newTypeCodec((encoder, value) -> encoder.writePackedArray(value),
+                value -> getPackedArrayEncodedLength(getPackedIntegerType(value), value.length)));
+        registerTypeCodec(double[].class, newTypeCodec((encoder, value) -> encoder.writePackedArray(value),
+                value -> getPackedArrayEncodedLength(getPackedFloatType(value), value.length)));
+        registerTypeCodec(float[].class, newTypeCodec((encoder, value) -> encoder.writePackedArray(value),
+                value -> getPackedArrayEncodedLength(PackedElementType.FLOAT32, value.length)));
+        registerTypeCodec(boolean[].class, newTypeCodec((encoder, value) -> encoder.writePackedArray(value),
+                value -> getPackedArrayEncodedLength(PackedElementType.BOOLEAN, value.length)));
+        registerTypeCodec(BitSet.class, newTypeCodec((encoder, value) -> encoder.writePackedArray(value, value.length()),
+                value -> getPackedArrayEncodedLength(PackedElementType.BOOLEAN, value.length())));
+        registerTypeCodec(List.class, LIST_CODEC);
+        registerTypeCodec(Map.class, MAP_CODEC);
+        registerTypeCodec(EncodedValue.class, newTypeCodec((encoder, value) -> encoder.writeEncoded(value.getEncoded()),
+                EncodedValue::getEncodedLength));
+    }
+
+    /**
+     * Register a codec for a type (and its subclasses) in the table shared by all encoders.
+     * A codec registered for the exact class of a value always wins; otherwise the most recently
+     * registered matching supertype is used.
+     */
+    public static <T> void registerTypeCodec(@Nonnull Class<T> type, @Nonnull TypeCodec<? super T> codec) {
+        synchronized(TYPE_CODECS_LOCK) {
+            Map<Class<?>, TypeCodec<?>> codecs = new LinkedHashMap<>(registeredTypeCodecs);
+            codecs.remove(type);
+            codecs.put(type, codec);
+            registeredTypeCodecs = Collections.unmodifiableMap(codecs);
+            typeCodecs = newTypeCodecLookup(registeredTypeCodecs);
+        }
+    }
+
+    private static @Nonnull ClassValue<TypeCodec<?>> newTypeCodecLookup(@Nonnull Map<Class<?>, TypeCodec<?>> codecs) {
+        List<Map.Entry<Class<?>, TypeCodec<?>>> newestFirst = new ArrayList<>(codecs.entrySet());
+        Collections.reverse(newestFirst);
+        return new ClassValue<TypeCodec<?>>() {
+            @Override
+            protected TypeCodec<?> computeValue(Class<?> type) {
+                TypeCodec<?> codec = codecs.get(type);
+                if(codec != null) {
+                    return codec;
+                }
+                for(Map.Entry<Class<?>, TypeCodec<?>> entry: newestFirst) {
+                    if(entry.getKey().isAssignableFrom(type)) {
+                        return entry.getValue();
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * @return The codec that would be used for values of a type, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    static @CheckForNull TypeCodec<Object> findTypeCodec(@Nonnull Class<?> type) {
+        return (TypeCodec<Object>)typeCodecs.get(type);
+    }
+
+    /**
+     * @return true if values of a type are encoded by the built-in list or map codec.
+     */
+    static boolean hasBuiltInContainerCodec(@Nonnull Class<?> type) {
+        TypeCodec<?> codec = typeCodecs.get(type);
+        return codec == LIST_CODEC || codec == MAP_CODEC;
+    }
+
+    static @Nonnull TypeCodec<Object> getTypeCodec(@Nonnull Class<?> type) {
+        TypeCodec<Object> codec = findTypeCodec(type);
+        if(codec == null) {
+            throw new IllegalArgumentException("Don't know how to encode type " + type);
+        }
+        return codec;
+    }
+
+    /**
+     * Calculate the exact number of bytes Encoder.writeObject() would write for a value, without encoding it.
+     */
+    public static int sizeOf(@CheckForNull Object value) {
+        if(value == null) {
+            return 1;
+        }
+        return getTypeCodec(value.getClass()).sizeOf(value);
+    }
+
     public static class Encoder {
-        interface Writer<T> {
-            int write(@Nonnull T value) throws NoRoomException;
+        /**
+         * Decides what happens when the current buffer runs out of room.
+         */
+        interface Output {
+            /**
+             * Make at least length contiguous bytes available at the encoder's current offset, or throw.
+             */
+            void makeRoom(@Nonnull Encoder encoder, int length) throws NoRoomException;
+
+            /**
+             * @return Everything encoded so far, in order.
+             */
+            @Nonnull List<BinaryBuffer> getSegments(@Nonnull Encoder encoder);
+
+            /**
+             * Pass on everything encoded so far, if this output sends data anywhere.
+             */
+            void flush(@Nonnull Encoder encoder) throws IOException;
+        }
+
+        private static class FixedOutput implements Output {
+            @Override
+            public void makeRoom(@Nonnull Encoder encoder, int length) throws NoRoomException {
+                throw new NoRoomException();
+            }
+
+            @Override
+            public @Nonnull List<BinaryBuffer> getSegments(@Nonnull Encoder encoder) {
+                return Collections.singletonList(encoder.buffer.newView(encoder.buffer.startOffset, encoder.currentOffset));
+            }
+
+            @Override
+            public void flush(@Nonnull Encoder encoder) {
+            }
+        }
+
+        private static class GrowingOutput extends FixedOutput {
+            @Override
+            public void makeRoom(@Nonnull Encoder encoder, int length) {
+                BinaryBuffer oldBuffer = encoder.buffer;
+                int usedLength = oldBuffer.lengthToOffset(encoder.currentOffset);
+                int newLength = Math.max(oldBuffer.length * 2, usedLength + length + encoder.reservedLength);
+                BinaryBuffer newBuffer = new BinaryBuffer(newLength);
+                newBuffer.copyFrom(oldBuffer, oldBuffer.startOffset, newBuffer.startOffset, usedLength);
+                encoder.switchBuffer(newBuffer, newBuffer.startOffset + usedLength);
+            }
+        }
+
+        private static class ChainedOutput implements Output {
+            private final List<BinaryBuffer> completedSegments = new ArrayList<>();
+            private final int segmentLength;
+
+            ChainedOutput(int segmentLength) {
+                this.segmentLength = segmentLength;
+            }
+
+            @Override
+            public void makeRoom(@Nonnull Encoder encoder, int length) {
+                BinaryBuffer oldBuffer = encoder.buffer;
+                if(encoder.currentOffset > oldBuffer.startOffset) {
+                    completedSegments.add(oldBuffer.newView(oldBuffer.startOffset, encoder.currentOffset));
+                }
+                BinaryBuffer newBuffer = new BinaryBuffer(Math.max(segmentLength, length + encoder.reservedLength));
+                encoder.switchBuffer(newBuffer, newBuffer.startOffset);
+            }
+
+            @Override
+            public @Nonnull List<BinaryBuffer> getSegments(@Nonnull Encoder encoder) {
+                List<BinaryBuffer> segments = new ArrayList<>(completedSegments);
+                if(encoder.currentOffset > encoder.buffer.startOffset) {
+                    segments.add(encoder.buffer.newView(encoder.buffer.startOffset, encoder.currentOffset));
+                }
+                return segments;
+            }
+
+            @Override
+            public void flush(@Nonnull Encoder encoder) {
+            }
+        }
+
+        /**
+         * Where a flushing encoder sends its data.
+         */
+        interface Sink {
+            void write(@Nonnull BinaryBuffer data) throws IOException;
+        }
+
+        /**
+         * Sends the buffer's contents to a sink whenever it fills up, then reuses it.
+         * A value that needs more contiguous room than the buffer has gets a temporary buffer of its own.
+         */
+        private static class FlushingOutput implements Output {
+            private final Sink sink;
+            private final BinaryBuffer standardBuffer;
+
+            FlushingOutput(@Nonnull Sink sink, @Nonnull BinaryBuffer standardBuffer) {
+                this.sink = sink;
+                this.standardBuffer = standardBuffer;
+            }
+
+            @Override
+            public void makeRoom(@Nonnull Encoder encoder, int length) throws NoRoomException {
+                try {
+                    flush(encoder);
+                } catch(IOException e) {
+                    throw new NoRoomException(e);
+                }
+                int requiredLength = length + encoder.reservedLength;
+                if(requiredLength > standardBuffer.length) {
+                    BinaryBuffer largeBuffer = new BinaryBuffer(requiredLength);
+                    encoder.switchBuffer(largeBuffer, largeBuffer.startOffset);
+                }
+            }
+
+            @Override
+            public @Nonnull List<BinaryBuffer> getSegments(@Nonnull Encoder encoder) {
+                return Collections.singletonList(encoder.buffer.newView(encoder.buffer.startOffset, encoder.currentOffset));
+            }
+
+            @Override
+            public void flush(@Nonnull Encoder encoder) throws IOException {
+                BinaryBuffer buffer = encoder.buffer;
+                if(encoder.currentOffset > buffer.startOffset) {
+                    sink.write(buffer.newView(buffer.startOffset, encoder.currentOffset));
+                }
+                if(buffer == standardBuffer) {
+                    encoder.currentOffset = buffer.startOffset;
+                } else {
+                    encoder.switchBuffer(standardBuffer, standardBuffer.startOffset);
+                }
+            }
+        }
+
+        /**
+         * How an encoder chooses the encoding of integer and floating point values.
+         */
+        public static class Profile extends Named {
+            private Profile(@Nonnull String name) {
+                super(name);
+            }
+
+            /**
+             * Use the smallest encoding that holds each value.
+             */
+            public static final Profile COMPACT = new Profile("compact");
+
+            /**
+             * Write integers as INT32 or INT64 and floating point values as FLOAT64, skipping the
+             * smallest-fit checks. Lengths and counts are still written compactly.
+             * BinaryCodec.sizeOf() reports COMPACT sizes, which may be smaller than what this writes.
+             */
+            public static final Profile FAST = new Profile("fast");
         }
 
-        private final Map<Class, Writer> writers = StrictMap.withImplementation(ConcurrentHashMap::new);
-        private final LittleEndianCodec endianCodec;
-        final BinaryBuffer buffer;
+        // Longer strings are measured before encoding rather than reserving room for the worst case.
+        private static final int MAX_BOUNDED_STRING_LENGTH = 4096;
+
+        private final Output output;
+        private Profile profile = Profile.COMPACT;
+        private boolean isFast;
+        private LittleEndianCodec endianCodec;
+        BinaryBuffer buffer;
         int currentOffset;
+        private int reservedLength;
+        private int containerDepth;
+
+        public Encoder(@Nonnull BinaryBuffer buffer) {
+            this(buffer, new FixedOutput());
+        }
+
+        Encoder(@Nonnull BinaryBuffer buffer, @Nonnull Output output) {
+            this.output = output;
+            switchBuffer(buffer, buffer.startOffset);
+        }
+
+        /**
+         * Create an encoder that moves to a buffer twice the size (copying what was written so far)
+         * whenever it runs out of room.
+         */
+        public static @Nonnull Encoder newGrowing(int initialLength) {
+            return new Encoder(new BinaryBuffer(initialLength), new GrowingOutput());
+        }
 
-        Encoder(@Nonnull BinaryBuffer buffer) {
+        /**
+         * Create an encoder that starts a new fixed-size segment whenever it runs out of room.
+         * Previously written segments are never copied. Get the results using newCompositeView().
+         */
+        public static @Nonnull Encoder newChained(int segmentLength) {
+            return new Encoder(new BinaryBuffer(segmentLength), new ChainedOutput(segmentLength));
+        }
+
+        /**
+         * Create an encoder that writes to a sink through a fixed-size buffer, sending the buffer's contents
+         * whenever it fills up. An IOException from the sink is thrown as the cause of a NoRoomException.
+         * Call flush() to send the remainder. newView() only covers data that hasn't been sent yet.
+         */
+        static @Nonnull Encoder newFlushing(@Nonnull Sink sink, int bufferLength) {
+            BinaryBuffer buffer = new BinaryBuffer(bufferLength);
+            return new Encoder(buffer, new FlushingOutput(sink, buffer));
+        }
+
+        /**
+         * Send everything encoded so far on to wherever this encoder's output goes. Does nothing for
+         * encoders that write to buffers.
+         */
+        public void flush() throws IOException {
+            output.flush(this);
+        }
+
+        public @Nonnull Profile getProfile() {
+            return profile;
+        }
+
+        /**
+         * Choose how integer and floating point values are written from now on.
+         */
+        public void setProfile(@Nonnull Profile profile) {
+            this.profile = profile;
+            this.isFast = profile == Profile.FAST;
+        }
+
+        private void switchBuffer(@Nonnull BinaryBuffer buffer, int currentOffset) {
             this.buffer = buffer;
-            this.currentOffset = buffer.startOffset;
+            this.currentOffset = currentOffset;
             this.endianCodec = new LittleEndianCodec(buffer);
-            buildWriters();
         }
 
+        private void ensureRoom(int length) throws NoRoomException {
+            if(currentOffset + length > buffer.endOffset - reservedLength) {
+                output.makeRoom(this, length);
+            }
+        }
+
+        /**
+         * @return A view of the encoded data.
+         * @throws IllegalStateException if the data spans multiple segments.
+         */
         public @Nonnull BinaryBuffer newView() {
+            List<BinaryBuffer> segments = output.getSegments(this);
+            if(segments.size() > 1) {
+                throw new IllegalStateException("Encoded data spans " + segments.size() + " segments. Use newCompositeView()");
+            }
             return buffer.newView(buffer.startOffset, currentOffset);
         }
 
-        private void buildWriters() {
-            writers.put(Boolean.class, (Writer<Boolean>) this::writeBoolean);
-            writers.put(Byte.class, (Writer<Byte>) this::writeInteger);
-            writers.put(Short.class, (Writer<Short>) this::writeInteger);
-            writers.put(Integer.class, (Writer<Integer>) this::writeInteger);
-            writers.put(Long.class, (Writer<Long>) this::writeInteger);
-            writers.put(Float.class, (Writer<Float>) this::writeFloat32);
-            writers.put(Double.class, (Writer<Double>) this::writeFloat);
-            writers.put(Int128Holder.class, (Writer<Int128Holder>) this::writeDecimal128);
-            writers.put(byte[].class, (Writer<byte[]>) this::writeBytes);
-            writers.put(BinaryBuffer.class, (Writer<BinaryBuffer>) this::writeBytes);
-            writers.put(String.class, (Writer<String>) this::writeString);
-            writers.put(Date.class, (Writer<Date>) this::writeDate);
-            writers.put(Instant.class, (Writer<Instant>) this::writeDate);
-            writers.put(List.class, (Writer<List>) this::writeList);
-            writers.put(Map.class, (Writer<Map>) this::writeMap);
+        /**
+         * @return A view of all encoded data, which may span multiple segments.
+         */
+        public @Nonnull CompositeBuffer newCompositeView() {
+            return new CompositeBuffer(output.getSegments(this));
         }
 
         public int writeObject(@CheckForNull Object value) throws NoRoomException {
             if(value == null) {
                 return writeEmpty();
             }
-            Writer writer = writers.computeIfAbsent(value.getClass(), aClass -> {
-                for(Map.Entry<Class, Writer> entry: writers.entrySet()) {
-                    Class superclass = entry.getKey();
-                    if(superclass.isAssignableFrom(aClass)) {
-                        return entry.getValue();
-                    }
-                }
-                throw new IllegalArgumentException("Don't know how to encode type " + aClass);
-            });
-            return writer.write(value);
+            return getTypeCodec(value.getClass()).write(this, value);
         }
 
         private int write8(int value) throws NoRoomException {
-            try {
-                int length = endianCodec.encodeInt8(currentOffset, value);
-                currentOffset += length;
-                return length;
-            } catch(IndexOutOfBoundsException e) {
-                throw new NoRoomException();
-            }
+            ensureRoom(1);
+            int length = endianCodec.encodeInt8(currentOffset, value);
+            currentOffset += length;
+            return length;
         }
 
         private int write16(int value) throws NoRoomException {
-            try {
-                int length = endianCodec.encodeInt16(currentOffset, value);
-                currentOffset += length;
-                return length;
-            } catch(IndexOutOfBoundsException e) {
-                throw new NoRoomException();
-            }
+            ensureRoom(2);
+            int length = endianCodec.encodeInt16(currentOffset, value);
+            currentOffset += length;
+            return length;
         }
 
         private int write24(int value) throws NoRoomException {
-            try {
-                int length = endianCodec.encodeInt24(currentOffset, value);
-                currentOffset += length;
-                return length;
-            } catch(IndexOutOfBoundsException e) {
-                throw new NoRoomException();
-            }
+            ensureRoom(3);
+            int length = endianCodec.encodeInt24(currentOffset, value);
+            currentOffset += length;
+            return length;
         }
 
         private int write32(int value) throws NoRoomException {
-            try {
-                int length = endianCodec.encodeInt32(currentOffset, value);
-                currentOffset += length;
-                return length;
-            } catch(IndexOutOfBoundsException e) {
-                throw new NoRoomException();
-            }
+            ensureRoom(4);
+            int length = endianCodec.encodeInt32(currentOffset, value);
+            currentOffset += length;
+            return length;
         }
 
         private int write40(long value) throws NoRoomException {
-            try {
-                int length = endianCodec.encodeInt40(currentOffset, value);
-                currentOffset += length;
-                return length;
-            } catch(IndexOutOfBoundsException e) {
-                throw new NoRoomException();
-            }
+            ensureRoom(5);
+            int length = endianCodec.encodeInt40(currentOffset, value);
+            currentOffset += length;
+            return length;
         }
 
         private int write48(long value) throws NoRoomException {
-            try {
-                int length = endianCodec.encodeInt48(currentOffset, value);
-                currentOffset += length;
-                return length;
-            } catch(IndexOutOfBoundsException e) {
-                throw new NoRoomException();
-            }
+            ensureRoom(6);
+            int length = endianCodec.encodeInt48(currentOffset, value);
+            currentOffset += length;
+            return length;
         }
 
         private int write56(long value) throws NoRoomException {
-            try {
-                int length = endianCodec.encodeInt56(currentOffset, value);
-                currentOffset += length;
-                return length;
-            } catch(IndexOutOfBoundsException e) {
-                throw new NoRoomException();
-            }
+            ensureRoom(7);
+            int length = endianCodec.encodeInt56(currentOffset, value);
+            currentOffset += length;
+            return length;
         }
 
         private int write64(long value) throws NoRoomException {
-            try {
-                int length = endianCodec.encodeInt64(currentOffset, value);
-                currentOffset += length;
-                return length;
-            } catch(IndexOutOfBoundsException e) {
-                throw new NoRoomException();
-            }
+            ensureRoom(8);
+            int length = endianCodec.encodeInt64(currentOffset, value);
+            currentOffset += length;
+            return length;
         }
 
         private int write128(@Nonnull Int128Holder value) throws NoRoomException {
-            try {
-                int length = endianCodec.encodeInt128(currentOffset, value);
-                currentOffset += length;
-                return length;
-            } catch(IndexOutOfBoundsException e) {
-                throw new NoRoomException();
-            }
+            ensureRoom(16);
+            int length = endianCodec.encodeInt128(currentOffset, value);
+            currentOffset += length;
+            return length;
         }
 
         private int writeData(@Nonnull byte[] value, int startOffset, int endOffset) throws NoRoomException {
-            int oldOffset = currentOffset;
             int length = endOffset - startOffset;
-            writeLength(length);
-            if(!buffer.hasSpace(currentOffset, currentOffset + length)) {
-                currentOffset = oldOffset;
-                throw new NoRoomException();
-            }
+            int lengthLength = writeDataLength(length);
             buffer.copyFrom(value,startOffset, currentOffset, length);
             currentOffset += length;
-            return currentOffset - oldOffset;
+            return lengthLength + length;
+        }
+
+        /**
+         * Write a length field and make room for that many bytes of data after it.
+         * @return The length of the length field.
+         */
+        private int writeDataLength(int length) throws NoRoomException {
+            int oldOffset = currentOffset;
+            int lengthLength = writeLength(length);
+            try {
+                ensureRoom(length);
+            } catch(NoRoomException e) {
+                currentOffset = oldOffset;
+                throw e;
+            }
+            return lengthLength;
         }
 
         private int writeData(@Nonnull byte[] value) throws NoRoomException {
@@ -226,7 +809,10 @@ public class BinaryCodec {
         }
 
         private int writeData(@Nonnull BinaryBuffer value) throws NoRoomException {
-            return writeData(value.data, value.startOffset, value.endOffset);
+            int lengthLength = writeDataLength(value.length);
+            buffer.copyFrom(value, value.startOffset, currentOffset, value.length);
+            currentOffset += value.length;
+            return lengthLength + value.length;
         }
 
         private int writeType(int type) throws NoRoomException {
@@ -234,10 +820,10 @@ public class BinaryCodec {
         }
 
         private int writeLength(int length) throws NoRoomException {
-            return writeInteger(length);
+            return writeCompactInteger(length);
         }
 
-        private int writeBoolean(boolean value) throws NoRoomException {
+        public int writeBoolean(boolean value) throws NoRoomException {
             return writeType(value ? EncodedType.TRUE : EncodedType.FALSE);
         }
 
@@ -278,28 +864,31 @@ public class BinaryCodec {
         }
 
         private int writeInteger(long value) throws NoRoomException {
-            if(value >= SMALLINT_MIN && value <= SMALLINT_MAX) {
-                return writeIntegerSmall((int)value);
-            }
-            if(value >= -0x8000 && value <= 0x7fff) {
-                return writeInteger16((int)value);
-            }
-            if(value >= -0x800000 && value <= 0x7fffff) {
-                return writeInteger24((int)value);
-            }
-            if(value >= -0x80000000 && value <= 0x7fffffff) {
-                return writeInteger32((int)value);
+            if(isFast) {
+                return value == (int)value ? writeInteger32((int)value) : writeInteger64(value);
             }
-            if(value >= -0x8000000000L && value <= 0x7fffffffffL) {
-                return writeInteger40(value);
-            }
-            if(value >= -0x800000000000L && value <= 0x7fffffffffffL) {
-                return writeInteger48(value);
-            }
-            if(value >= -0x80000000000000L && value <= 0x7fffffffffffffL) {
-                return writeInteger56(value);
+            return writeCompactInteger(value);
+        }
+
+        private int writeCompactInteger(long value) throws NoRoomException {
+            switch(getIntegerEncodedLength(value)) {
+                case 1:
+                    return writeIntegerSmall((int)value);
+                case 3:
+                    return writeInteger16((int)value);
+                case 4:
+                    return writeInteger24((int)value);
+                case 5:
+                    return writeInteger32((int)value);
+                case 6:
+                    return writeInteger40(value);
+                case 7:
+                    return writeInteger48(value);
+                case 8:
+                    return writeInteger56(value);
+                default:
+                    return writeInteger64(value);
             }
-            return writeInteger64(value);
         }
 
         private int writeFloat32(float value) throws NoRoomException {
@@ -311,21 +900,28 @@ public class BinaryCodec {
         }
 
         private int writeFloat(double value) throws NoRoomException {
-            if((float)value == value) {
+            if(!isFast && canEncodeAsFloat32(value)) {
                 return writeFloat32((float)value);
             } else {
                 return writeFloat64(value);
             }
         }
 
-        private int writeDateDay(int year, int month, int day) throws NoRoomException {
-            if(day < 1 || day > 31) {
-                throw new IllegalArgumentException("Day is invalid: " + day);
-            }
-            if(month < 1 || month > 12) {
-                throw new IllegalArgumentException("Month is invalid: " + month);
-            }
-            int field = day | (month << 5) | (year << 9);
+        /**
+         * Write an integer using the smallest encoding that holds it (or as INT32/INT64 with the FAST profile).
+         */
+        public int writeLong(long value) throws NoRoomException {
+            return writeInteger(value);
+        }
+
+        /**
+         * Write a floating point value, as float32 if that can be done without loss (always float64 with the FAST profile).
+         */
+        public int writeDouble(double value) throws NoRoomException {
+            return writeFloat(value);
+        }
+
+        private int writeDateDays(int field) throws NoRoomException {
             return writeType(EncodedType.DATE_DAYS) + write32(field);
         }
 
@@ -342,84 +938,283 @@ public class BinaryCodec {
         }
 
         private int writeDate(@Nonnull Date date) throws NoRoomException {
-            Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-            calendar.clear();
-            calendar.setTime(date);
-            long milliseconds = calendar.getTimeInMillis();
-            if(calendar.get(Calendar.MILLISECOND) == 0) {
-                if(calendar.get(Calendar.SECOND) == 0 && calendar.get(Calendar.MINUTE) == 0 && calendar.get(Calendar.HOUR) == 0) {
-                    return writeDateDay(calendar.get(Calendar.YEAR),
-                            calendar.get(Calendar.MONTH) + 1,
-                            calendar.get(Calendar.DAY_OF_MONTH));
-                }
-                return writeDateSeconds(milliseconds / 1000);
+            long milliseconds = date.getTime();
+            switch(getDateType(date)) {
+                case EncodedType.DATE_DAYS:
+                    return writeDateDays(getDateDaysField(Math.floorDiv(milliseconds, MILLISECONDS_PER_DAY)));
+                case EncodedType.DATE_SECONDS:
+                    return writeDateSeconds(milliseconds / 1000);
+                default:
+                    return writeDateMilliseconds(milliseconds);
             }
-            return writeDateMilliseconds(milliseconds);
         }
 
         private int writeDate(@Nonnull Instant instant) throws NoRoomException {
-            ZonedDateTime date = instant.atZone(ZoneOffset.UTC);
-            if(date.getLong(ChronoField.SECOND_OF_DAY) == 0) {
-                return writeDateDay((int)date.getLong(ChronoField.YEAR),
-                        (int)date.getLong(ChronoField.MONTH_OF_YEAR),
-                        (int)date.getLong(ChronoField.DAY_OF_MONTH));
-            }
             long seconds = instant.getEpochSecond();
             long microseconds = instant.getNano() / 1000;
-            if(microseconds == 0) {
-                return writeDateSeconds(seconds);
+            switch(getDateType(instant)) {
+                case EncodedType.DATE_DAYS:
+                    return writeDateDays(getDateDaysField(Math.floorDiv(seconds, SECONDS_PER_DAY)));
+                case EncodedType.DATE_SECONDS:
+                    return writeDateSeconds(seconds);
+                case EncodedType.DATE_MSECONDS:
+                    return writeDateMilliseconds(seconds * 1000 + microseconds / 1000);
+                default:
+                    return writeDateMicroseconds(seconds * MICROSECONDS_PER_SECOND + microseconds);
             }
-            if(microseconds % 1000 == 0) {
-                return writeDateMilliseconds(seconds * 1000 + microseconds / 1000);
-            }
-            return writeDateMicroseconds(seconds * 1000000 + microseconds);
         }
 
-        private int writeString(@Nonnull String value) throws NoRoomException {
-            return writeType(EncodedType.STRING) + writeData(stringToBytes(value));
+        private int writeDate(@Nonnull LocalDate date) throws NoRoomException {
+            return writeDateDays(getDateDaysField(date.getYear(), date.getMonthValue(), date.getDayOfMonth()));
         }
 
-        private int writeBytes(@Nonnull BinaryBuffer value) throws NoRoomException {
-            return writeType(EncodedType.BYTES) + writeData(value);
+        public int writeString(@Nonnull CharSequence value) throws NoRoomException {
+            int charCount = value.length();
+            if(charCount > MAX_BOUNDED_STRING_LENGTH || !buffer.hasArray()) {
+                return writeStringExact(value);
+            }
+            // A UTF-16 char never takes more than 3 bytes in UTF-8 (a surrogate pair takes 4).
+            int maxByteCount = charCount * 3;
+            int maxLengthLength = getIntegerEncodedLength(maxByteCount);
+            try {
+                ensureRoom(1 + maxLengthLength + maxByteCount);
+            } catch(NoRoomException e) {
+                // The actual encoding may still fit.
+                return writeStringExact(value);
+            }
+            int dataOffset = currentOffset + 1 + maxLengthLength;
+            int byteCount = Utf8Tool.encode(value, buffer.data, dataOffset);
+            int lengthLength = getIntegerEncodedLength(byteCount);
+            if(lengthLength < maxLengthLength) {
+                System.arraycopy(buffer.data, dataOffset, buffer.data, dataOffset - (maxLengthLength - lengthLength), byteCount);
+            }
+            writeType(EncodedType.STRING);
+            writeLength(byteCount);
+            currentOffset += byteCount;
+            return 1 + lengthLength + byteCount;
         }
 
-        private int writeBytes(@Nonnull byte[] value) throws NoRoomException {
-            return writeType(EncodedType.BYTES) + writeData(value);
+        /**
+         * Write a string that is already UTF-8 encoded.
+         */
+        public int writeUtf8String(@Nonnull BinaryBuffer utf8) throws NoRoomException {
+            return writeType(EncodedType.STRING) + writeData(utf8);
         }
 
-        private int writeEndContainer() throws NoRoomException {
-            return writeType(EncodedType.END_CONTAINER);
+        private int writeStringExact(@Nonnull CharSequence value) throws NoRoomException {
+            int byteCount = Utf8Tool.getEncodedLength(value);
+            int lengthLength = getIntegerEncodedLength(byteCount);
+            ensureRoom(1 + lengthLength + byteCount);
+            writeType(EncodedType.STRING);
+            writeLength(byteCount);
+            if(buffer.hasArray()) {
+                Utf8Tool.encode(value, buffer.data, currentOffset);
+            } else {
+                byte[] utf8 = new byte[byteCount];
+                Utf8Tool.encode(value, utf8, 0);
+                buffer.copyFrom(utf8, 0, currentOffset, byteCount);
+            }
+            currentOffset += byteCount;
+            return 1 + lengthLength + byteCount;
         }
 
-        private int writeList(@Nonnull List value) throws NoRoomException {
+        /**
+         * Copy data that is already encoded into the output as is. The data must be complete values.
+         */
+        public int writeEncoded(@Nonnull BinaryBuffer encoded) throws NoRoomException {
+            ensureRoom(encoded.length);
+            buffer.copyFrom(encoded, encoded.startOffset, currentOffset, encoded.length);
+            currentOffset += encoded.length;
+            return encoded.length;
+        }
+
+        public int writeBytes(@Nonnull BinaryBuffer value) throws NoRoomException {
+            return writeType(EncodedType.BYTES) + writeData(value);
+        }
+
+        public int writeBytes(@Nonnull byte[] value) throws NoRoomException {
+            return writeType(EncodedType.BYTES) + writeData(value);
+        }
+
+        public int writeBytes(@Nonnull byte[] value, int startOffset, int endOffset) throws NoRoomException {
+            return writeType(EncodedType.BYTES) + writeData(value, startOffset, endOffset);
+        }
+
+        /**
+         * Write the header of a packed array and make room for its elements.
+         * @return The encoded length of the whole array, including the elements still to be written.
+         */
+        private int writePackedArrayHeader(int elementType, int count) throws NoRoomException {
+            int encodedLength = getPackedArrayEncodedLength(elementType, count);
+            int headerLength = writeType(EncodedType.PACKED_ARRAY) + write8(elementType) + writeLength(count);
+            ensureRoom(encodedLength - headerLength);
+            return encodedLength;
+        }
+
+        /**
+         * Write integers as a packed array, using the narrowest element type that holds all of them.
+         */
+        public int writePackedArray(@Nonnull long[] values) throws NoRoomException {
+            int elementType = getPackedIntegerType(values);
+            int length = writePackedArrayHeader(elementType, values.length);
+            switch(elementType) {
+                case PackedElementType.INT8:
+                    for(long value: values) {
+                        currentOffset += endianCodec.encodeInt8(currentOffset, (int)value);
+                    }
+                    break;
+                case PackedElementType.INT16:
+                    for(long value: values) {
+                        currentOffset += endianCodec.encodeInt16(currentOffset, (int)value);
+                    }
+                    break;
+                case PackedElementType.INT32:
+                    for(long value: values) {
+                        currentOffset += endianCodec.encodeInt32(currentOffset, (int)value);
+                    }
+                    break;
+                default:
+                    currentOffset += endianCodec.encodeInt64Array(currentOffset, values);
+            }
+            return length;
+        }
+
+        /**
+         * Write integers as a packed array, using the narrowest element type that holds all of them.
+         */
+        public int writePackedArray(@Nonnull int[] values) throws NoRoomException {
+            int elementType = getPackedIntegerType(values);
+            int length = writePackedArrayHeader(elementType, values.length);
+            switch(elementType) {
+                case PackedElementType.INT8:
+                    for(int value: values) {
+                        currentOffset += endianCodec.encodeInt8(currentOffset, value);
+                    }
+                    break;
+                case PackedElementType.INT16:
+                    for(int value: values) {
+                        currentOffset += endianCodec.encodeInt16(currentOffset, value);
+                    }
+                    break;
+                default:
+                    currentOffset += endianCodec.encodeInt32Array(currentOffset, values);
+            }
+            return length;
+        }
+
+        /**
+         * Write floating point values as a packed array, as float32 if all of them can be stored without loss.
+         */
+        public int writePackedArray(@Nonnull double[] values) throws NoRoomException {
+            int elementType = getPackedFloatType(values);
+            int length = writePackedArrayHeader(elementType, values.length);
+            if(elementType == PackedElementType.FLOAT32) {
+                for(double value: values) {
+                    currentOffset += endianCodec.encodeFloat32(currentOffset, (float)value);
+                }
+            } else {
+                currentOffset += endianCodec.encodeFloat64Array(currentOffset, values);
+            }
+            return length;
+        }
+
+        public int writePackedArray(@Nonnull float[] values) throws NoRoomException {
+            int length = writePackedArrayHeader(PackedElementType.FLOAT32, values.length);
+            currentOffset += endianCodec.encodeFloat32Array(currentOffset, values);
+            return length;
+        }
+
+        public int writePackedArray(@Nonnull boolean[] values) throws NoRoomException {
+            int length = writePackedArrayHeader(PackedElementType.BOOLEAN, values.length);
+            for(int i = 0; i < values.length; i += 8) {
+                int bits = 0;
+                int end = Math.min(i + 8, values.length);
+                for(int j = i; j < end; j++) {
+                    if(values[j]) {
+                        bits |= 1 << (j - i);
+                    }
+                }
+                currentOffset += endianCodec.encodeInt8(currentOffset, bits);
+            }
+            return length;
+        }
+
+        /**
+         * Write the first count bits of a bit set as a packed boolean array.
+         */
+        public int writePackedArray(@Nonnull BitSet values, int count) throws NoRoomException {
+            if(count < 0) {
+                throw new IllegalArgumentException("Invalid count: " + count);
+            }
+            int length = writePackedArrayHeader(PackedElementType.BOOLEAN, count);
+            byte[] bits = values.get(0, count).toByteArray();
+            int payloadLength = (int)getPackedPayloadLength(PackedElementType.BOOLEAN, count);
+            buffer.copyFrom(bits, 0, currentOffset, bits.length);
+            for(int i = bits.length; i < payloadLength; i++) {
+                endianCodec.encodeInt8(currentOffset + i, 0);
+            }
+            currentOffset += payloadLength;
+            return length;
+        }
+
+        /**
+         * Start a list. Follow with the list's values, then endContainer().
+         */
+        public int beginList() throws NoRoomException {
             int length = writeType(EncodedType.LIST);
+            containerDepth++;
+            return length;
+        }
+
+        /**
+         * Start a map. Follow with alternating keys and values, then endContainer().
+         */
+        public int beginMap() throws NoRoomException {
+            int length = writeType(EncodedType.MAP);
+            containerDepth++;
+            return length;
+        }
+
+        /**
+         * End the most recently begun list or map.
+         */
+        public int endContainer() throws NoRoomException {
+            if(containerDepth == 0) {
+                throw new IllegalStateException("No open container to end");
+            }
+            int length = writeType(EncodedType.END_CONTAINER);
+            containerDepth--;
+            return length;
+        }
+
+        /**
+         * @return The number of containers begun but not yet ended.
+         */
+        public int getContainerDepth() {
+            return containerDepth;
+        }
+
+        private int writeList(@Nonnull List value) throws NoRoomException {
+            int length = beginList();
             for(Object o: value) {
                 length += writeObject(o);
             }
-            return length + writeEndContainer();
+            return length + endContainer();
         }
 
         private int writeMap(@Nonnull Map<Object, Object> value) throws NoRoomException {
-            int length = writeType(EncodedType.MAP);
+            int length = beginMap();
             for(Map.Entry entry: value.entrySet()) {
                 length += writeObject(entry.getKey());
                 length += writeObject(entry.getValue());
             }
-            return length + writeEndContainer();
+            return length + endContainer();
         }
 
-        private int writeEmpty() throws NoRoomException {
+        public int writeEmpty() throws NoRoomException {
             return writeType(EncodedType.EMPTY);
         }
 
-        private static @Nonnull byte[] stringToBytes(@Nonnull String string) {
-            try {
-                return string.getBytes("UTF-8");
-            } catch (UnsupportedEncodingException e) {
-                throw new IllegalStateException("UTF-8 encoding not supported", e);
-            }
-        }
-
         interface Stream<T> extends AutoCloseable {
             int write(T value) throws NoRoomException;
             @Override
@@ -443,23 +1238,29 @@ public class BinaryCodec {
         }
 
         public class ListStream implements Stream<Object> {
-            private final Encoder encoder;
-
             private ListStream() throws NoRoomException {
-                writeType(EncodedType.LIST);
+                beginList();
                 // Leave room for "end container" marker
-                this.encoder = new Encoder(buffer.newView(currentOffset, buffer.endOffset-1));
+                reservedLength++;
             }
 
             public int write(@Nonnull Object value) throws NoRoomException {
-                encoder.writeObject(value);
-                currentOffset = encoder.currentOffset;
+                int startOffset = currentOffset;
+                int startDepth = containerDepth;
+                try {
+                    writeObject(value);
+                } catch(NoRoomException e) {
+                    currentOffset = startOffset;
+                    containerDepth = startDepth;
+                    throw e;
+                }
                 return 1;
             }
 
             public void close() {
+                reservedLength--;
                 try {
-                    writeEndContainer();
+                    endContainer();
                 } catch(NoRoomException e) {
                     throw new IllegalStateException(e);
                 }
@@ -467,24 +1268,30 @@ public class BinaryCodec {
         }
 
         public class MapStream implements Stream<KeyValue> {
-            private final Encoder encoder;
-
             private MapStream() throws NoRoomException {
-                writeType(EncodedType.MAP);
+                beginMap();
                 // Leave room for "end container" marker
-                this.encoder = new Encoder(buffer.newView(currentOffset, buffer.endOffset-1));
+                reservedLength++;
             }
 
             public int write(@Nonnull KeyValue keyValue) throws NoRoomException {
-                encoder.writeObject(keyValue.key);
-                encoder.writeObject(keyValue.value);
-                currentOffset = encoder.currentOffset;
+                int startOffset = currentOffset;
+                int startDepth = containerDepth;
+                try {
+                    writeObject(keyValue.key);
+                    writeObject(keyValue.value);
+                } catch(NoRoomException e) {
+                    currentOffset = startOffset;
+                    containerDepth = startDepth;
+                    throw e;
+                }
                 return 1;
             }
 
             public void close() {
+                reservedLength--;
                 try {
-                    writeEndContainer();
+                    endContainer();
                 } catch(NoRoomException e) {
                     throw new IllegalStateException(e);
                 }
@@ -500,7 +1307,7 @@ public class BinaryCodec {
                 int beforeOffset = viewOffset;
                 int bytesWritten = super.write(fromBuffer);
                 if(bytesWritten < fromBuffer.length) {
-                    viewOffset = Utf8Tool.offsetToLastFullUTF8Character(view.data, viewOffset, view.startOffset);
+                    viewOffset = Utf8Tool.offsetToLastFullUTF8Character(view, viewOffset);
                 }
                 return viewOffset - beforeOffset;
             }
@@ -561,14 +1368,125 @@ public class BinaryCodec {
             void onValue(Object value);
         }
 
+        /**
+         * Receives each decoded token as a primitive, in order, without building an object graph.
+         * String and bytes values are views into the buffer being decoded.
+         */
+        public interface TypedVisitor {
+            void onLong(long value);
+            void onDouble(double value);
+            void onFloat(float value);
+            void onBoolean(boolean value);
+            void onNull();
+            void onString(@Nonnull BinaryBuffer utf8);
+            void onBytes(@Nonnull BinaryBuffer value);
+            void onDecimal128(long highWord, long lowWord);
+            void onDateDays(int year, int month, int day);
+            void onDateSeconds(long seconds);
+            void onDateMilliseconds(long milliseconds);
+            void onDateMicroseconds(long microseconds);
+            void onLongArray(@Nonnull long[] values);
+            void onDoubleArray(@Nonnull double[] values);
+            void onBooleanArray(@Nonnull boolean[] values);
+            void onListStart();
+            void onMapStart();
+            void onContainerEnd();
+        }
+
+        /**
+         * How decoded values are built. Immutable; each with...() method returns a modified copy.
+         */
+        public static class Options {
+            public static final Options DEFAULT = new Options(null, false, false, false);
+
+            final StringCache stringCache;
+            final boolean lazyContainers;
+            final boolean presizedContainers;
+            final boolean javaTimeDates;
+
+            private Options(@Nullable StringCache stringCache, boolean lazyContainers, boolean presizedContainers,
+                            boolean javaTimeDates) {
+                this.stringCache = stringCache;
+                this.lazyContainers = lazyContainers;
+                this.presizedContainers = presizedContainers;
+                this.javaTimeDates = javaTimeDates;
+            }
+
+            /**
+             * If not null, decoded strings are looked up in (and added to) this cache.
+             */
+            public @Nonnull Options withStringCache(@Nullable StringCache stringCache) {
+                return new Options(stringCache, lazyContainers, presizedContainers, javaTimeDates);
+            }
+
+            /**
+             * If true, lists and maps are reported as read-only views backed by the fed buffer, which
+             * decode their contents on first access. The buffer must not be modified while the views are in use.
+             */
+            public @Nonnull Options withLazyContainers(boolean lazyContainers) {
+                return new Options(stringCache, lazyContainers, presizedContainers, javaTimeDates);
+            }
+
+            /**
+             * If true, lists and maps are counted with a structural pre-scan before decoding, so that they are
+             * allocated at the right size: maps of up to 8 entries as an exactly sized ArrayMap, and larger ones
+             * as a HashMap with enough capacity. Otherwise lists grow as needed, and every map starts as an
+             * ArrayMap with room for 8 entries, switching to a HashMap when it gets larger than that.
+             */
+            public @Nonnull Options withPresizedContainers(boolean presizedContainers) {
+                return new Options(stringCache, lazyContainers, presizedContainers, javaTimeDates);
+            }
+
+            /**
+             * If true, day dates are decoded as LocalDate, and all other dates as Instant.
+             * Otherwise dates are decoded as Date, except for microsecond dates which are always Instant.
+             */
+            public @Nonnull Options withJavaTimeDates(boolean javaTimeDates) {
+                return new Options(stringCache, lazyContainers, presizedContainers, javaTimeDates);
+            }
+        }
+
         private final Visitor visitor;
+        private final TypedVisitor typedVisitor;
+        private final Options options;
 
         public Decoder(@Nonnull Visitor visitor) {
+            this(visitor, Options.DEFAULT);
+        }
+
+        /**
+         * @param stringCache If not null, decoded strings are looked up in (and added to) this cache.
+         */
+        public Decoder(@Nonnull Visitor visitor, @Nullable StringCache stringCache) {
+            this(visitor, Options.DEFAULT.withStringCache(stringCache));
+        }
+
+        /**
+         * @param stringCache If not null, decoded strings are looked up in (and added to) this cache.
+         * @param lazyContainers If true, lists and maps are decoded lazily (see Options.withLazyContainers()).
+         */
+        public Decoder(@Nonnull Visitor visitor, @Nullable StringCache stringCache, boolean lazyContainers) {
+            this(visitor, Options.DEFAULT.withStringCache(stringCache).withLazyContainers(lazyContainers));
+        }
+
+        public Decoder(@Nonnull Visitor visitor, @Nonnull Options options) {
             this.visitor = visitor;
+            this.typedVisitor = null;
+            this.options = options;
+        }
+
+        public Decoder(@Nonnull TypedVisitor typedVisitor) {
+            this.visitor = null;
+            this.typedVisitor = typedVisitor;
+            this.options = Options.DEFAULT;
         }
 
         public void feed(@Nonnull BinaryBuffer buffer) throws EndOfDataException {
-            Reader reader = new Reader(buffer);
+            if(typedVisitor != null) {
+                feedTyped(buffer);
+                return;
+            }
+            Reader reader = new Reader(buffer, options);
             while (reader.hasObject()) {
                 Object value = reader.readObject();
                 if(value == END_CONTAINER_MARKER) {
@@ -578,15 +1496,120 @@ public class BinaryCodec {
             }
         }
 
+        private void feedTyped(@Nonnull BinaryBuffer buffer) throws EndOfDataException {
+            Reader reader = new Reader(buffer);
+            int depth = 0;
+            while(reader.hasObject()) {
+                int type = reader.readType();
+                switch(type) {
+                    case EncodedType.INT16:
+                        typedVisitor.onLong(reader.readInt16());
+                        break;
+                    case EncodedType.INT24:
+                        typedVisitor.onLong(reader.readInt24());
+                        break;
+                    case EncodedType.INT32:
+                        typedVisitor.onLong(reader.readInt32());
+                        break;
+                    case EncodedType.INT40:
+                        typedVisitor.onLong(reader.readInt40());
+                        break;
+                    case EncodedType.INT48:
+                        typedVisitor.onLong(reader.readInt48());
+                        break;
+                    case EncodedType.INT56:
+                        typedVisitor.onLong(reader.readInt56());
+                        break;
+                    case EncodedType.INT64:
+                        typedVisitor.onLong(reader.readInt64());
+                        break;
+                    case EncodedType.FLOAT32:
+                        typedVisitor.onFloat(reader.readFloat32());
+                        break;
+                    case EncodedType.FLOAT64:
+                        typedVisitor.onDouble(reader.readFloat64());
+                        break;
+                    case EncodedType.DECIMAL128:
+                        long lowWord = reader.readInt64();
+                        typedVisitor.onDecimal128(reader.readInt64(), lowWord);
+                        break;
+                    case EncodedType.DATE_DAYS:
+                        int field = reader.readInt32();
+                        typedVisitor.onDateDays(field >> 9, (field >> 5) & 0x0f, field & 0x1f);
+                        break;
+                    case EncodedType.DATE_SECONDS:
+                        typedVisitor.onDateSeconds(reader.readInt48());
+                        break;
+                    case EncodedType.DATE_MSECONDS:
+                        typedVisitor.onDateMilliseconds(reader.readInt64());
+                        break;
+                    case EncodedType.DATE_USECONDS:
+                        typedVisitor.onDateMicroseconds(reader.readInt64());
+                        break;
+                    case EncodedType.BYTES:
+                        typedVisitor.onBytes(reader.readBytes());
+                        break;
+                    case EncodedType.STRING:
+                        typedVisitor.onString(reader.readBytes());
+                        break;
+                    case EncodedType.PACKED_ARRAY:
+                        Object array = reader.readPackedArray();
+                        if(array instanceof long[]) {
+                            typedVisitor.onLongArray((long[])array);
+                        } else if(array instanceof double[]) {
+                            typedVisitor.onDoubleArray((double[])array);
+                        } else {
+                            typedVisitor.onBooleanArray((boolean[])array);
+                        }
+                        break;
+                    case EncodedType.LIST:
+                        depth++;
+                        typedVisitor.onListStart();
+                        break;
+                    case EncodedType.MAP:
+                        depth++;
+                        typedVisitor.onMapStart();
+                        break;
+                    case EncodedType.END_CONTAINER:
+                        if(depth == 0) {
+                            throw new IllegalStateException("Unexpected end of container");
+                        }
+                        depth--;
+                        typedVisitor.onContainerEnd();
+                        break;
+                    case EncodedType.EMPTY:
+                        typedVisitor.onNull();
+                        break;
+                    case EncodedType.FALSE:
+                        typedVisitor.onBoolean(false);
+                        break;
+                    case EncodedType.TRUE:
+                        typedVisitor.onBoolean(true);
+                        break;
+                    default:
+                        typedVisitor.onLong(type);
+                }
+            }
+            if(depth > 0) {
+                throw new IllegalStateException("Premature end of container");
+            }
+        }
+
         private static class Reader {
             private final LittleEndianCodec endianCodec;
             private final BinaryBuffer buffer;
+            private final Options options;
             private int currentOffset;
 
             Reader(@Nonnull BinaryBuffer buffer) {
+                this(buffer, Options.DEFAULT);
+            }
+
+            Reader(@Nonnull BinaryBuffer buffer, @Nonnull Options options) {
                 this.buffer = buffer;
                 this.currentOffset = buffer.startOffset;
                 this.endianCodec = new LittleEndianCodec(buffer);
+                this.options = options;
             }
 
             private void checkCanReadBytes(int byteCount) throws EndOfDataException {
@@ -720,6 +1743,33 @@ public class BinaryCodec {
                 }
             }
 
+            /**
+             * Read the payload of an integer (whose type field has already been read).
+             */
+            private long readInteger(int type) throws EndOfDataException {
+                switch(type) {
+                    case EncodedType.INT16:
+                        return readInt16();
+                    case EncodedType.INT24:
+                        return readInt24();
+                    case EncodedType.INT32:
+                        return readInt32();
+                    case EncodedType.INT40:
+                        return readInt40();
+                    case EncodedType.INT48:
+                        return readInt48();
+                    case EncodedType.INT56:
+                        return readInt56();
+                    case EncodedType.INT64:
+                        return readInt64();
+                    default:
+                        if(TokenReader.getToken(type) != TokenReader.Token.INTEGER) {
+                            throw new IllegalStateException("Expected an integer type but got type " + type);
+                        }
+                        return type;
+                }
+            }
+
             private @Nonnull BinaryBuffer readBytes() throws EndOfDataException {
                 int length = readAndVerifyByteArrayLength();
                 int startOffst = currentOffset;
@@ -727,42 +1777,224 @@ public class BinaryCodec {
                 return buffer.newView(startOffst, currentOffset);
             }
 
+            /**
+             * Read a packed array (whose type field has already been read).
+             * @return long[] for integer elements, double[] for floating point elements, boolean[] for booleans.
+             */
+            private @Nonnull Object readPackedArray() throws EndOfDataException {
+                int elementType = readInt8();
+                int count = readLength();
+                long payloadLength = getPackedPayloadLength(elementType, count);
+                if(payloadLength > buffer.endOffset - currentOffset) {
+                    throw new EndOfDataException();
+                }
+                Object array;
+                switch(elementType) {
+                    case PackedElementType.INT8: {
+                        long[] values = new long[count];
+                        for(int i = 0; i < count; i++) {
+                            values[i] = endianCodec.decodeInt8(currentOffset + i);
+                        }
+                        array = values;
+                        break;
+                    }
+                    case PackedElementType.INT16: {
+                        long[] values = new long[count];
+                        for(int i = 0; i < count; i++) {
+                            values[i] = endianCodec.decodeInt16(currentOffset + i * 2);
+                        }
+                        array = values;
+                        break;
+                    }
+                    case PackedElementType.INT32: {
+                        long[] values = new long[count];
+                        for(int i = 0; i < count; i++) {
+                            values[i] = endianCodec.decodeInt32(currentOffset + i * 4);
+                        }
+                        array = values;
+                        break;
+                    }
+                    case PackedElementType.INT64: {
+                        long[] values = new long[count];
+                        endianCodec.decodeInt64Array(currentOffset, values);
+                        array = values;
+                        break;
+                    }
+                    case PackedElementType.FLOAT32: {
+                        double[] values = new double[count];
+                        for(int i = 0; i < count; i++) {
+                            values[i] = endianCodec.decodeFloat32(currentOffset + i * 4);
+                        }
+                        array = values;
+                        break;
+                    }
+                    case PackedElementType.FLOAT64: {
+                        double[] values = new double[count];
+                        endianCodec.decodeFloat64Array(currentOffset, values);
+                        array = values;
+                        break;
+                    }
+                    default: {
+                        boolean[] values = new boolean[count];
+                        for(int i = 0; i < count; i++) {
+                            values[i] = (endianCodec.decodeInt8(currentOffset + i / 8) & (1 << (i % 8))) != 0;
+                        }
+                        array = values;
+                    }
+                }
+                currentOffset += (int)payloadLength;
+                return array;
+            }
+
             private @Nonnull String readString() throws EndOfDataException {
-                return readBytes().utf8String();
+                BinaryBuffer utf8 = readBytes();
+                return options.stringCache != null ? options.stringCache.get(utf8) : utf8.utf8String();
             }
 
-            private @Nonnull Date readDateDays() throws EndOfDataException {
-                int field = readInt32();
-                int day = field & 0x1f;
-                int month = (field>>5) & 0x0f;
-                int year = field >> 9;
-                Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-                calendar.clear();
-                calendar.set(Calendar.YEAR, year);
-                calendar.set(Calendar.MONTH, month - 1);
-                calendar.set(Calendar.DAY_OF_MONTH, day);
-                return calendar.getTime();
+            private @Nonnull Object readDateDays() throws EndOfDataException {
+                long epochDay = getEpochDay(readInt32());
+                if(options.javaTimeDates) {
+                    return LocalDate.ofEpochDay(epochDay);
+                }
+                return new Date(epochDay * MILLISECONDS_PER_DAY);
             }
 
-            private @Nonnull Date readDateSeconds() throws EndOfDataException {
-                return new Date(readInt48() * 1000);
+            private @Nonnull Object readDateSeconds() throws EndOfDataException {
+                long seconds = readInt48();
+                if(options.javaTimeDates) {
+                    return Instant.ofEpochSecond(seconds);
+                }
+                return new Date(seconds * 1000);
             }
 
-            private @Nonnull Date readDateMilliseconds() throws EndOfDataException {
-                return new Date(readInt64());
+            private @Nonnull Object readDateMilliseconds() throws EndOfDataException {
+                long milliseconds = readInt64();
+                if(options.javaTimeDates) {
+                    return Instant.ofEpochMilli(milliseconds);
+                }
+                return new Date(milliseconds);
             }
 
             private @Nonnull Instant readDateMicroseconds() throws EndOfDataException {
                 long microseconds = readInt64();
-                return Instant.ofEpochSecond(microseconds / 1000000, (microseconds % 1000000) * 1000);
+                return Instant.ofEpochSecond(Math.floorDiv(microseconds, MICROSECONDS_PER_SECOND),
+                        Math.floorMod(microseconds, MICROSECONDS_PER_SECOND) * 1000);
             }
 
             private boolean hasObject() {
                 return currentOffset < buffer.endOffset;
             }
 
+            /**
+             * @return The payload length following the given type code, or -1 if it is variable (length-prefixed,
+             *         or a packed array).
+             */
+            private static int getFixedPayloadLength(int type) {
+                switch(type) {
+                    case EncodedType.INT16:
+                        return 2;
+                    case EncodedType.INT24:
+                        return 3;
+                    case EncodedType.INT32:
+                    case EncodedType.FLOAT32:
+                    case EncodedType.DATE_DAYS:
+                        return 4;
+                    case EncodedType.INT40:
+                        return 5;
+                    case EncodedType.INT48:
+                    case EncodedType.DATE_SECONDS:
+                        return 6;
+                    case EncodedType.INT56:
+                        return 7;
+                    case EncodedType.INT64:
+                    case EncodedType.FLOAT64:
+                    case EncodedType.DATE_MSECONDS:
+                    case EncodedType.DATE_USECONDS:
+                        return 8;
+                    case EncodedType.DECIMAL128:
+                        return 16;
+                    case EncodedType.STRING:
+                    case EncodedType.BYTES:
+                    case EncodedType.PACKED_ARRAY:
+                        return -1;
+                    default:
+                        return 0;
+                }
+            }
+
+            private void skipPayload(int type) throws EndOfDataException {
+                if(type == EncodedType.PACKED_ARRAY) {
+                    currentOffset = StructuralScanner.skipPackedArray(buffer, currentOffset, buffer.endOffset);
+                    return;
+                }
+                int length = getFixedPayloadLength(type);
+                if(length < 0) {
+                    length = readAndVerifyByteArrayLength();
+                }
+                checkCanReadBytes(length);
+                currentOffset += length;
+            }
+
+            /**
+             * Check if the entire payload of a scalar of the given type is available, without consuming anything.
+             */
+            private boolean hasCompletePayload(int type) {
+                if(type == EncodedType.PACKED_ARRAY) {
+                    try {
+                        StructuralScanner.skipPackedArray(buffer, currentOffset, buffer.endOffset);
+                        return true;
+                    } catch(EndOfDataException e) {
+                        return false;
+                    }
+                }
+                int remaining = buffer.endOffset - currentOffset;
+                int length = getFixedPayloadLength(type);
+                if(length >= 0) {
+                    return remaining >= length;
+                }
+                if(remaining < 1) {
+                    return false;
+                }
+                int lengthFieldLength = 1 + getFixedPayloadLength(endianCodec.decodeInt8(currentOffset));
+                if(remaining < lengthFieldLength) {
+                    return false;
+                }
+                int startOffset = currentOffset;
+                try {
+                    length = readLength();
+                } catch(EndOfDataException e) {
+                    throw new IllegalStateException("Length field should have been available", e);
+                } finally {
+                    currentOffset = startOffset;
+                }
+                return remaining - lengthFieldLength >= length;
+            }
+
+            private void skipContainerContents() throws EndOfDataException {
+                currentOffset = StructuralScanner.skip(buffer, currentOffset, buffer.endOffset, 1);
+            }
+
+            /**
+             * Skip the value of the given type (whose type field has already been read).
+             */
+            private void skipValue(int type) throws EndOfDataException {
+                switch(type) {
+                    case EncodedType.LIST:
+                    case EncodedType.MAP:
+                        skipContainerContents();
+                        break;
+                    case EncodedType.END_CONTAINER:
+                        throw new IllegalStateException("Unexpected end of container");
+                    default:
+                        skipPayload(type);
+                }
+            }
+
             private @Nullable Object readObject() throws EndOfDataException {
-                int type = readType();
+                return readObject(readType());
+            }
+
+            private @Nullable Object readObject(int type) throws EndOfDataException {
                 switch (type) {
                     case EncodedType.INT16:
                         return (long)readInt16();
@@ -796,10 +2028,12 @@ public class BinaryCodec {
                         return readBytes();
                     case EncodedType.STRING:
                         return readString();
+                    case EncodedType.PACKED_ARRAY:
+                        return readPackedArray();
                     case EncodedType.LIST:
-                        return readList();
+                        return options.lazyContainers ? new LazyList(this, skipContainer()) : readList();
                     case EncodedType.MAP:
-                        return readMap();
+                        return options.lazyContainers ? new LazyMap(this, skipContainer()) : readMap();
                     case EncodedType.EMPTY:
                         return null;
                     case EncodedType.FALSE:
@@ -813,25 +2047,71 @@ public class BinaryCodec {
                 }
             }
 
+            /**
+             * Skip over a container's contents, verifying that they are all present.
+             * @return The offset of the container's first element.
+             */
+            private int skipContainer() {
+                int startOffset = currentOffset;
+                try {
+                    skipContainerContents();
+                } catch(EndOfDataException e) {
+                    throw new IllegalStateException("Premature end of container");
+                }
+                return startOffset;
+            }
+
             private @Nonnull List<Object> readList() {
-                List<Object> list = new LinkedList<>();
                 Object value;
                 try {
+                    List<Object> list = options.presizedContainers ? new ArrayList<>(countContainerElements()) : new ArrayList<>();
                     while ((value = readObject()) != END_CONTAINER_MARKER) {
                         if(value != null) {
                             list.add(value);
                         }
                     }
+                    return list;
                 } catch(EndOfDataException e) {
                     throw new IllegalStateException("Premature end of list object");
                 }
-                return list;
             }
 
+            /**
+             * @return The number of values directly inside the container being read, without consuming anything.
+             */
+            private int countContainerElements() throws EndOfDataException {
+                int count = 0;
+                int offset = currentOffset;
+                for(;;) {
+                    if(offset >= buffer.endOffset) {
+                        throw new EndOfDataException();
+                    }
+                    if(buffer.get(offset) == EncodedType.END_CONTAINER) {
+                        return count;
+                    }
+                    offset = StructuralScanner.skip(buffer, offset, buffer.endOffset, 0);
+                    count++;
+                }
+            }
+
+            /**
+             * Maps up to this size are decoded as ArrayMap; larger ones as HashMap.
+             */
+            private static final int SMALL_MAP_MAX_SIZE = 8;
+
             private @Nonnull Map<Object, Object> readMap() {
-                Map<Object, Object> map = new HashMap<>();
                 Object key;
                 try {
+                    Map<Object, Object> map;
+                    boolean isSmall;
+                    if(options.presizedContainers) {
+                        int size = countContainerElements() / 2;
+                        isSmall = size <= SMALL_MAP_MAX_SIZE;
+                        map = isSmall ? new ArrayMap<>(size) : new HashMap<>((int)(size / 0.75f) + 1);
+                    } else {
+                        isSmall = true;
+                        map = new ArrayMap<>(SMALL_MAP_MAX_SIZE);
+                    }
                     while((key = readObject()) != END_CONTAINER_MARKER) {
                         if(key == null) {
                             throw new IllegalArgumentException("Key cannot be null");
@@ -841,6 +2121,10 @@ public class BinaryCodec {
                             if (value == END_CONTAINER_MARKER) {
                                 throw new IllegalStateException("Unexpected end of container");
                             }
+                            if(isSmall && map.size() == SMALL_MAP_MAX_SIZE && !map.containsKey(key)) {
+                                map = new HashMap<>(map);
+                                isSmall = false;
+                            }
                             map.put(key, value);
                         }
                     }
@@ -850,5 +2134,959 @@ public class BinaryCodec {
                 }
             }
         }
+
+        /**
+         * Read-only list backed by encoded data. Elements are located as they are first needed, and
+         * decoded (and cached) on first access. Not thread safe.
+         */
+        private static class LazyList extends AbstractList<Object> {
+            private final Reader reader;
+            private int[] offsets = new int[8];
+            private Object[] values = new Object[8];
+            private int count;
+            private int scanOffset;
+            private boolean isFullyScanned;
+
+            LazyList(@Nonnull Reader parent, int startOffset) {
+                this.reader = new Reader(parent.buffer, parent.options);
+                this.scanOffset = startOffset;
+            }
+
+            @Override
+            public Object get(int index) {
+                if(index < 0 || !scanTo(index)) {
+                    throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+                }
+                Object value = values[index];
+                if(value == null) {
+                    reader.currentOffset = offsets[index];
+                    try {
+                        value = reader.readObject();
+                    } catch(EndOfDataException e) {
+                        throw new IllegalStateException("Premature end of list object", e);
+                    }
+                    values[index] = value;
+                }
+                return value;
+            }
+
+            @Override
+            public int size() {
+                scanTo(Integer.MAX_VALUE);
+                return count;
+            }
+
+            /**
+             * @return true if the list has an element at index.
+             */
+            private boolean scanTo(int index) {
+                while(count <= index && !isFullyScanned) {
+                    reader.currentOffset = scanOffset;
+                    try {
+                        int type = reader.readType();
+                        if(type == EncodedType.END_CONTAINER) {
+                            isFullyScanned = true;
+                            break;
+                        }
+                        reader.skipValue(type);
+                        if(type != EncodedType.EMPTY) {
+                            addOffset(scanOffset);
+                        }
+                        scanOffset = reader.currentOffset;
+                    } catch(EndOfDataException e) {
+                        throw new IllegalStateException("Premature end of list object", e);
+                    }
+                }
+                return index < count;
+            }
+
+            private void addOffset(int offset) {
+                if(count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                offsets[count++] = offset;
+            }
+        }
+
+        /**
+         * Read-only map backed by encoded data. All keys are decoded on first access, and values are
+         * decoded (and cached) as they are looked up. Not thread safe.
+         */
+        private static class LazyMap extends AbstractMap<Object, Object> {
+            private final Reader reader;
+            private final int startOffset;
+            private Map<Object, Integer> valueOffsets;
+            private final Map<Object, Object> values = new HashMap<>();
+
+            LazyMap(@Nonnull Reader parent, int startOffset) {
+                this.reader = new Reader(parent.buffer, parent.options);
+                this.startOffset = startOffset;
+            }
+
+            @Override
+            public Object get(Object key) {
+                Object value = values.get(key);
+                if(value != null) {
+                    return value;
+                }
+                Integer offset = getValueOffsets().get(key);
+                if(offset == null) {
+                    return null;
+                }
+                reader.currentOffset = offset;
+                try {
+                    value = reader.readObject();
+                } catch(EndOfDataException e) {
+                    throw new IllegalStateException("Premature end of map object", e);
+                }
+                values.put(key, value);
+                return value;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return getValueOffsets().containsKey(key);
+            }
+
+            @Override
+            public int size() {
+                return getValueOffsets().size();
+            }
+
+            @Override
+            public @Nonnull Set<Entry<Object, Object>> entrySet() {
+                return new AbstractSet<Entry<Object, Object>>() {
+                    @Override
+                    public @Nonnull Iterator<Entry<Object, Object>> iterator() {
+                        Iterator<Object> keys = getValueOffsets().keySet().iterator();
+                        return new Iterator<Entry<Object, Object>>() {
+                            @Override
+                            public boolean hasNext() {
+                                return keys.hasNext();
+                            }
+
+                            @Override
+                            public Entry<Object, Object> next() {
+                                Object key = keys.next();
+                                return new SimpleImmutableEntry<>(key, get(key));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return LazyMap.this.size();
+                    }
+                };
+            }
+
+            private @Nonnull Map<Object, Integer> getValueOffsets() {
+                if(valueOffsets == null) {
+                    Map<Object, Integer> offsets = new HashMap<>();
+                    reader.currentOffset = startOffset;
+                    try {
+                        Object key;
+                        while((key = reader.readObject()) != END_CONTAINER_MARKER) {
+                            if(key == null) {
+                                throw new IllegalArgumentException("Key cannot be null");
+                            }
+                            int valueOffset = reader.currentOffset;
+                            int type = reader.readType();
+                            reader.skipValue(type);
+                            if(type != EncodedType.EMPTY) {
+                                offsets.put(key, valueOffset);
+                            }
+                        }
+                    } catch(EndOfDataException e) {
+                        throw new IllegalStateException("Premature end of map object", e);
+                    }
+                    valueOffsets = offsets;
+                }
+                return valueOffsets;
+            }
+        }
+    }
+
+    /**
+     * Extract a single value from nested maps and lists without decoding anything else.
+     * @see ValuePath
+     */
+    public static @CheckForNull Object extract(@Nonnull BinaryBuffer buffer, @Nonnull Object... path) throws EndOfDataException {
+        return new ValuePath(path).extract(buffer);
+    }
+
+    /**
+     * A precompiled path to a value inside nested maps and lists. Each element is either a string map key,
+     * or an integer which is used as a list index or an integer map key, depending on the container.
+     * Lookups skip over everything not on the path, and only the final value is decoded.
+     * Null list elements and map values are ignored, as they are when decoding.
+     * Immutable, and reusable across threads.
+     */
+    public static class ValuePath {
+        private static final int NOT_FOUND = -1;
+
+        private final Object[] elements;
+        private final byte[][] utf8Keys;
+
+        public ValuePath(@Nonnull Object... elements) {
+            this.elements = elements.clone();
+            this.utf8Keys = new byte[elements.length][];
+            for(int i = 0; i < elements.length; i++) {
+                Object element = elements[i];
+                if(element instanceof String) {
+                    String key = (String)element;
+                    utf8Keys[i] = new byte[Utf8Tool.getEncodedLength(key)];
+                    Utf8Tool.encode(key, utf8Keys[i], 0);
+                } else if(element instanceof Long) {
+                    // Already in decoded form
+                } else if(element instanceof Integer || element instanceof Short || element instanceof Byte) {
+                    this.elements[i] = ((Number)element).longValue();
+                } else {
+                    throw new IllegalArgumentException("Path elements must be strings or integers, not " +
+                            (element == null ? null : element.getClass()));
+                }
+            }
+        }
+
+        /**
+         * @return The decoded value at this path within the first value in the buffer, or null if there is none.
+         */
+        public @CheckForNull Object extract(@Nonnull BinaryBuffer buffer) throws EndOfDataException {
+            Decoder.Reader reader = new Decoder.Reader(buffer);
+            int offset = find(reader, buffer.startOffset);
+            if(offset == NOT_FOUND) {
+                return null;
+            }
+            reader.currentOffset = offset;
+            return reader.readObject();
+        }
+
+        /**
+         * @return A view of the encoded value at this path within the first value in the buffer, or null if there is none.
+         */
+        public @CheckForNull BinaryBuffer find(@Nonnull BinaryBuffer buffer) throws EndOfDataException {
+            Decoder.Reader reader = new Decoder.Reader(buffer);
+            int offset = find(reader, buffer.startOffset);
+            if(offset == NOT_FOUND) {
+                return null;
+            }
+            return buffer.newView(offset, StructuralScanner.skip(buffer, offset, buffer.endOffset, 0));
+        }
+
+        private int find(@Nonnull Decoder.Reader reader, int offset) throws EndOfDataException {
+            BinaryBuffer buffer = reader.buffer;
+            int endOffset = reader.buffer.endOffset;
+            for(int i = 0; i < elements.length && offset != NOT_FOUND; i++) {
+                if(offset >= endOffset) {
+                    throw new EndOfDataException();
+                }
+                switch(buffer.get(offset)) {
+                    case EncodedType.LIST:
+                        offset = elements[i] instanceof Long ? findListElement(buffer, offset + 1, endOffset, (Long)elements[i]) : NOT_FOUND;
+                        break;
+                    case EncodedType.MAP:
+                        offset = findMapValue(reader, offset + 1, i);
+                        break;
+                    default:
+                        offset = NOT_FOUND;
+                }
+            }
+            if(offset != NOT_FOUND && offset >= endOffset) {
+                throw new EndOfDataException();
+            }
+            return offset;
+        }
+
+        private static int findListElement(@Nonnull BinaryBuffer buffer, int offset, int endOffset, long index) throws EndOfDataException {
+            long currentIndex = 0;
+            for(;;) {
+                if(offset >= endOffset) {
+                    throw new EndOfDataException();
+                }
+                int type = buffer.get(offset);
+                if(type == EncodedType.END_CONTAINER) {
+                    return NOT_FOUND;
+                }
+                if(type != EncodedType.EMPTY) {
+                    if(currentIndex == index) {
+                        return offset;
+                    }
+                    currentIndex++;
+                }
+                offset = StructuralScanner.skip(buffer, offset, endOffset, 0);
+            }
+        }
+
+        private int findMapValue(@Nonnull Decoder.Reader reader, int offset, int elementIndex) throws EndOfDataException {
+            BinaryBuffer buffer = reader.buffer;
+            int endOffset = reader.buffer.endOffset;
+            for(;;) {
+                if(offset >= endOffset) {
+                    throw new EndOfDataException();
+                }
+                if(buffer.get(offset) == EncodedType.END_CONTAINER) {
+                    return NOT_FOUND;
+                }
+                boolean isMatch = keyMatches(reader, offset, elementIndex);
+                int valueOffset = StructuralScanner.skip(buffer, offset, endOffset, 0);
+                offset = StructuralScanner.skip(buffer, valueOffset, endOffset, 0);
+                if(isMatch && buffer.get(valueOffset) != EncodedType.EMPTY) {
+                    return valueOffset;
+                }
+            }
+        }
+
+        private boolean keyMatches(@Nonnull Decoder.Reader reader, int offset, int elementIndex) throws EndOfDataException {
+            reader.currentOffset = offset;
+            int type = reader.readType();
+            byte[] utf8Key = utf8Keys[elementIndex];
+            if(utf8Key != null) {
+                if(type != EncodedType.STRING) {
+                    return false;
+                }
+                int length = reader.readAndVerifyByteArrayLength();
+                if(length != utf8Key.length) {
+                    return false;
+                }
+                BinaryBuffer buffer = reader.buffer;
+                int keyOffset = reader.currentOffset;
+                for(int i = 0; i < length; i++) {
+                    if(buffer.get(keyOffset + i) != utf8Key[i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            if(TokenReader.getToken(type) != TokenReader.Token.INTEGER) {
+                return false;
+            }
+            return reader.readInteger(type) == (Long)elements[elementIndex];
+        }
+
+        @Override
+        public @Nonnull String toString() {
+            return "ValuePath" + Arrays.toString(elements);
+        }
+    }
+
+    /**
+     * Walks encoded data reading only type codes and length fields, without decoding any values.
+     * Use it to find the byte ranges of values for routing, indexing, or partial extraction.
+     */
+    public static class StructuralScanner {
+        /**
+         * Receives the location of each top-level value.
+         */
+        public interface Visitor {
+            void onValue(int type, int startOffset, int endOffset);
+        }
+
+        private static final int LENGTH_PREFIXED = -1;
+        private static final int CONTAINER_START = -2;
+        private static final int CONTAINER_END = -3;
+        private static final int PACKED_ARRAY = -4;
+        // What follows each type code (indexed by the unsigned code): a fixed payload length or one of the above.
+        private static final int[] PAYLOAD_LENGTHS = new int[256];
+
+        static {
+            for(int i = 0; i < PAYLOAD_LENGTHS.length; i++) {
+                PAYLOAD_LENGTHS[i] = Decoder.Reader.getFixedPayloadLength((byte)i);
+            }
+            PAYLOAD_LENGTHS[EncodedType.LIST & 0xff] = CONTAINER_START;
+            PAYLOAD_LENGTHS[EncodedType.MAP & 0xff] = CONTAINER_START;
+            PAYLOAD_LENGTHS[EncodedType.END_CONTAINER & 0xff] = CONTAINER_END;
+            PAYLOAD_LENGTHS[EncodedType.PACKED_ARRAY & 0xff] = PACKED_ARRAY;
+        }
+
+        private final BinaryBuffer buffer;
+        private int currentOffset;
+
+        public StructuralScanner(@Nonnull BinaryBuffer buffer) {
+            this.buffer = buffer;
+            this.currentOffset = buffer.startOffset;
+        }
+
+        public boolean hasNext() {
+            return currentOffset < buffer.endOffset;
+        }
+
+        public int getCurrentOffset() {
+            return currentOffset;
+        }
+
+        /**
+         * @return The type code of the next value, without consuming it.
+         */
+        public int peekType() throws EndOfDataException {
+            if(!hasNext()) {
+                throw new EndOfDataException();
+            }
+            return buffer.get(currentOffset);
+        }
+
+        /**
+         * Skip the next value, including the entire contents of containers.
+         * @throws EndOfDataException if the value is incomplete. The scanner does not advance.
+         */
+        public void skipValue() throws EndOfDataException {
+            currentOffset = skip(buffer, currentOffset, buffer.endOffset, 0);
+        }
+
+        /**
+         * @return A view of the next value's encoded bytes.
+         */
+        public @Nonnull BinaryBuffer nextValue() throws EndOfDataException {
+            int startOffset = currentOffset;
+            skipValue();
+            return buffer.newView(startOffset, currentOffset);
+        }
+
+        /**
+         * Report the location of every top-level value in a buffer.
+         * @return The number of values found.
+         */
+        public static int scan(@Nonnull BinaryBuffer buffer, @Nonnull Visitor visitor) throws EndOfDataException {
+            int offset = buffer.startOffset;
+            int count = 0;
+            while(offset < buffer.endOffset) {
+                int endOffset = skip(buffer, offset, buffer.endOffset, 0);
+                visitor.onValue(buffer.get(offset), offset, endOffset);
+                offset = endOffset;
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * Skip encoded data until the container nesting drops back to 0 (or past a single value if
+         * depth is already 0).
+         * @return The offset following the skipped data.
+         */
+        static int skip(@Nonnull BinaryBuffer buffer, int offset, int endOffset, int depth) throws EndOfDataException {
+            do {
+                if(offset >= endOffset) {
+                    throw new EndOfDataException();
+                }
+                int type = buffer.get(offset++);
+                int payloadLength = PAYLOAD_LENGTHS[type & 0xff];
+                if(payloadLength == CONTAINER_START) {
+                    depth++;
+                    continue;
+                }
+                if(payloadLength == CONTAINER_END) {
+                    if(depth == 0) {
+                        throw new IllegalStateException("Unexpected end of container");
+                    }
+                    depth--;
+                    continue;
+                }
+                if(payloadLength == PACKED_ARRAY) {
+                    offset = skipPackedArray(buffer, offset, endOffset);
+                    continue;
+                }
+                if(payloadLength == LENGTH_PREFIXED) {
+                    if(offset >= endOffset) {
+                        throw new EndOfDataException();
+                    }
+                    int lengthType = buffer.get(offset++);
+                    int lengthFieldLength = PAYLOAD_LENGTHS[lengthType & 0xff];
+                    if(lengthFieldLength > endOffset - offset) {
+                        throw new EndOfDataException();
+                    }
+                    // Step over the length field first, so that a huge length can't overflow the check below.
+                    payloadLength = decodeLength(buffer, offset, lengthType);
+                    offset += lengthFieldLength;
+                }
+                if(payloadLength > endOffset - offset) {
+                    throw new EndOfDataException();
+                }
+                offset += payloadLength;
+            } while(depth > 0);
+            return offset;
+        }
+
+        /**
+         * Skip the element type, count, and elements of a packed array (whose type field has already been read).
+         * @return The offset following the array.
+         */
+        static int skipPackedArray(@Nonnull BinaryBuffer buffer, int offset, int endOffset) throws EndOfDataException {
+            if(endOffset - offset < 2) {
+                throw new EndOfDataException();
+            }
+            int elementType = buffer.get(offset++);
+            int countType = buffer.get(offset++);
+            int countLength = PAYLOAD_LENGTHS[countType & 0xff];
+            if(countLength > endOffset - offset) {
+                throw new EndOfDataException();
+            }
+            long payloadLength = getPackedPayloadLength(elementType, decodeLength(buffer, offset, countType));
+            offset += countLength;
+            if(payloadLength > endOffset - offset) {
+                throw new EndOfDataException();
+            }
+            return offset + (int)payloadLength;
+        }
+
+        private static int decodeLength(@Nonnull BinaryBuffer buffer, int offset, int lengthType) {
+            int length;
+            switch(lengthType) {
+                case EncodedType.INT16:
+                    length = (buffer.get(offset) & 0xff) | (buffer.get(offset + 1) << 8);
+                    break;
+                case EncodedType.INT24:
+                    length = (buffer.get(offset) & 0xff) | ((buffer.get(offset + 1) & 0xff) << 8) | (buffer.get(offset + 2) << 16);
+                    break;
+                case EncodedType.INT32:
+                    length = (buffer.get(offset) & 0xff) | ((buffer.get(offset + 1) & 0xff) << 8) |
+                            ((buffer.get(offset + 2) & 0xff) << 16) | (buffer.get(offset + 3) << 24);
+                    break;
+                default:
+                    if(lengthType < SMALLINT_MIN || lengthType > SMALLINT_MAX) {
+                        throw new IllegalStateException("Expected an integer type but got type " + lengthType);
+                    }
+                    length = lengthType;
+            }
+            if(length < 0) {
+                throw new IllegalStateException("Invalid length: " + length);
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Decoder that accepts data in arbitrary chunks (for example straight from a socket read), and
+     * reports each top-level value to its visitor as soon as that value is complete.
+     *
+     * Containers under construction are kept on an explicit stack, so the only bytes held between
+     * calls to feed() are those of a single incomplete scalar value.
+     * Decoded bytes values are copies, since the chunks they came from are usually reused.
+     */
+    public static class IncrementalDecoder {
+        private static class PartialContainer {
+            private final List<Object> list;
+            private final Map<Object, Object> map;
+            private Object key;
+
+            PartialContainer(@Nullable List<Object> list, @Nullable Map<Object, Object> map) {
+                this.list = list;
+                this.map = map;
+            }
+
+            void add(@Nullable Object value) {
+                if(list != null) {
+                    if(value != null) {
+                        list.add(value);
+                    }
+                    return;
+                }
+                if(key == null) {
+                    if(value == null) {
+                        throw new IllegalArgumentException("Key cannot be null");
+                    }
+                    key = value;
+                    return;
+                }
+                if(value != null) {
+                    map.put(key, value);
+                }
+                key = null;
+            }
+
+            @Nonnull Object complete() {
+                if(list != null) {
+                    return list;
+                }
+                if(key != null) {
+                    throw new IllegalStateException("Unexpected end of container");
+                }
+                return map;
+            }
+        }
+
+        private final Decoder.Visitor visitor;
+        private final Deque<PartialContainer> containers = new ArrayDeque<>();
+        private byte[] pending = new byte[0];
+        private int pendingLength;
+
+        public IncrementalDecoder(@Nonnull Decoder.Visitor visitor) {
+            this.visitor = visitor;
+        }
+
+        /**
+         * Feed the next chunk of data. Any trailing partial value is kept until more data arrives.
+         */
+        public void feed(@Nonnull BinaryBuffer chunk) {
+            BinaryBuffer working = chunk;
+            if(pendingLength > 0) {
+                appendPending(chunk, chunk.startOffset, chunk.length);
+                working = new BinaryBuffer(pending, 0, pendingLength);
+            }
+            int decodedEndOffset = decodeAvailable(working);
+            int remaining = working.endOffset - decodedEndOffset;
+            if(working.data == pending) {
+                // Nothing to move if the pending value is still incomplete.
+                if(decodedEndOffset > 0) {
+                    System.arraycopy(pending, decodedEndOffset, pending, 0, remaining);
+                    pendingLength = remaining;
+                }
+            } else {
+                pendingLength = 0;
+                appendPending(working, decodedEndOffset, remaining);
+            }
+        }
+
+        /**
+         * @return true if a value has been started but not yet completed.
+         */
+        public boolean hasPartialValue() {
+            return pendingLength > 0 || !containers.isEmpty();
+        }
+
+        /**
+         * Verify that the data fed so far ended on a value boundary.
+         */
+        public void verifyCompleteness() throws EndOfDataException {
+            if(hasPartialValue()) {
+                throw new EndOfDataException();
+            }
+        }
+
+        private void appendPending(@Nonnull BinaryBuffer buffer, int startOffset, int length) {
+            if(pendingLength + length > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+            }
+            buffer.copyTo(pending, pendingLength, startOffset, length);
+            pendingLength += length;
+        }
+
+        private int decodeAvailable(@Nonnull BinaryBuffer buffer) {
+            Decoder.Reader reader = new Decoder.Reader(buffer);
+            try {
+                while(reader.hasObject()) {
+                    int valueStartOffset = reader.currentOffset;
+                    int type = reader.readType();
+                    switch(type) {
+                        case EncodedType.LIST:
+                            containers.push(new PartialContainer(new ArrayList<>(), null));
+                            break;
+                        case EncodedType.MAP:
+                            containers.push(new PartialContainer(null, new HashMap<>()));
+                            break;
+                        case EncodedType.END_CONTAINER:
+                            if(containers.isEmpty()) {
+                                throw new IllegalStateException("Unexpected end of container");
+                            }
+                            onValueComplete(containers.pop().complete());
+                            break;
+                        default:
+                            if(!reader.hasCompletePayload(type)) {
+                                return valueStartOffset;
+                            }
+                            Object value = reader.readObject(type);
+                            if(type == EncodedType.BYTES) {
+                                // Don't alias the pending array or the caller's chunk.
+                                value = ((BinaryBuffer)value).newCopy();
+                            }
+                            onValueComplete(value);
+                    }
+                }
+            } catch(EndOfDataException e) {
+                throw new IllegalStateException("Payload should have been available", e);
+            }
+            return reader.currentOffset;
+        }
+
+        private void onValueComplete(@Nullable Object value) {
+            if(containers.isEmpty()) {
+                visitor.onValue(value);
+            } else {
+                containers.peek().add(value);
+            }
+        }
+    }
+
+    /**
+     * Pull-style reader that walks encoded data one token at a time, without building an object graph.
+     *
+     * Call nextToken() to move to the next value, then either read it with one of the read methods,
+     * descend into it with enterContainer(), or skip it. Calling nextToken() again skips any value
+     * that wasn't consumed.
+     */
+    public static class TokenReader {
+        public interface Token {
+            int END_OF_DATA   = 0;
+            int INTEGER       = 1;
+            int FLOAT         = 2;
+            int DECIMAL       = 3;
+            int BOOLEAN       = 4;
+            int EMPTY         = 5;
+            int STRING        = 6;
+            int BYTES         = 7;
+            int DATE          = 8;
+            int LIST          = 9;
+            int MAP           = 10;
+            int END_CONTAINER = 11;
+            int PACKED_ARRAY  = 12;
+        }
+
+        private final Decoder.Reader reader;
+        private int currentType;
+        private boolean isTokenPending;
+        private int depth;
+
+        public TokenReader(@Nonnull BinaryBuffer buffer) {
+            this.reader = new Decoder.Reader(buffer);
+        }
+
+        private static int getToken(int type) {
+            switch(type) {
+                case EncodedType.INT16:
+                case EncodedType.INT24:
+                case EncodedType.INT32:
+                case EncodedType.INT40:
+                case EncodedType.INT48:
+                case EncodedType.INT56:
+                case EncodedType.INT64:
+                    return Token.INTEGER;
+                case EncodedType.FLOAT32:
+                case EncodedType.FLOAT64:
+                    return Token.FLOAT;
+                case EncodedType.DECIMAL128:
+                    return Token.DECIMAL;
+                case EncodedType.DATE_DAYS:
+                case EncodedType.DATE_SECONDS:
+                case EncodedType.DATE_MSECONDS:
+                case EncodedType.DATE_USECONDS:
+                    return Token.DATE;
+                case EncodedType.BYTES:
+                    return Token.BYTES;
+                case EncodedType.STRING:
+                    return Token.STRING;
+                case EncodedType.LIST:
+                    return Token.LIST;
+                case EncodedType.MAP:
+                    return Token.MAP;
+                case EncodedType.EMPTY:
+                    return Token.EMPTY;
+                case EncodedType.FALSE:
+                case EncodedType.TRUE:
+                    return Token.BOOLEAN;
+                case EncodedType.END_CONTAINER:
+                    return Token.END_CONTAINER;
+                case EncodedType.PACKED_ARRAY:
+                    return Token.PACKED_ARRAY;
+                default:
+                    return Token.INTEGER;
+            }
+        }
+
+        /**
+         * Move to the next token, skipping the current value if it wasn't consumed.
+         *
+         * @return The token type (one of Token).
+         * @throws EndOfDataException if the data ends inside of a container.
+         */
+        public int nextToken() throws EndOfDataException {
+            if(isTokenPending) {
+                skipValue();
+            }
+            if(!reader.hasObject()) {
+                if(depth > 0) {
+                    throw new EndOfDataException();
+                }
+                return Token.END_OF_DATA;
+            }
+            currentType = reader.readType();
+            isTokenPending = true;
+            return getToken(currentType);
+        }
+
+        /**
+         * @return The raw encoded type of the current token (one of EncodedType, or a small integer value).
+         */
+        public int getEncodedType() {
+            return currentType;
+        }
+
+        /**
+         * @return The current container nesting depth (0 = top level).
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        private void requirePendingToken() {
+            if(!isTokenPending) {
+                throw new IllegalStateException("No current token. Call nextToken() first");
+            }
+        }
+
+        public long readLong() throws EndOfDataException {
+            requirePendingToken();
+            long value = reader.readInteger(currentType);
+            isTokenPending = false;
+            return value;
+        }
+
+        /**
+         * Read a floating point value. Integer values are converted.
+         */
+        public double readDouble() throws EndOfDataException {
+            requirePendingToken();
+            double value;
+            switch(currentType) {
+                case EncodedType.FLOAT32:
+                    value = reader.readFloat32();
+                    break;
+                case EncodedType.FLOAT64:
+                    value = reader.readFloat64();
+                    break;
+                default:
+                    if(getToken(currentType) != Token.INTEGER) {
+                        throw new IllegalStateException("Expected a numeric type but got type " + currentType);
+                    }
+                    return readLong();
+            }
+            isTokenPending = false;
+            return value;
+        }
+
+        public boolean readBoolean() {
+            requirePendingToken();
+            if(getToken(currentType) != Token.BOOLEAN) {
+                throw new IllegalStateException("Expected a boolean type but got type " + currentType);
+            }
+            isTokenPending = false;
+            return currentType == EncodedType.TRUE;
+        }
+
+        public @Nonnull String readString() throws EndOfDataException {
+            requirePendingToken();
+            if(currentType != EncodedType.STRING) {
+                throw new IllegalStateException("Expected a string type but got type " + currentType);
+            }
+            String value = reader.readString();
+            isTokenPending = false;
+            return value;
+        }
+
+        /**
+         * Read a bytes value as a view into the underlying buffer.
+         * For strings, this returns the raw UTF-8 bytes.
+         */
+        public @Nonnull BinaryBuffer readBytes() throws EndOfDataException {
+            requirePendingToken();
+            if(currentType != EncodedType.BYTES && currentType != EncodedType.STRING) {
+                throw new IllegalStateException("Expected a bytes type but got type " + currentType);
+            }
+            BinaryBuffer value = reader.readBytes();
+            isTokenPending = false;
+            return value;
+        }
+
+        public @Nonnull Decimal128Holder readDecimal128() throws EndOfDataException {
+            requirePendingToken();
+            if(currentType != EncodedType.DECIMAL128) {
+                throw new IllegalStateException("Expected a decimal type but got type " + currentType);
+            }
+            Decimal128Holder value = reader.readDecimal128();
+            isTokenPending = false;
+            return value;
+        }
+
+        /**
+         * @return The date as a Date or Instant, depending on the encoded precision.
+         */
+        public @Nonnull Object readDate() throws EndOfDataException {
+            requirePendingToken();
+            Object value;
+            switch(currentType) {
+                case EncodedType.DATE_DAYS:
+                    value = reader.readDateDays();
+                    break;
+                case EncodedType.DATE_SECONDS:
+                    value = reader.readDateSeconds();
+                    break;
+                case EncodedType.DATE_MSECONDS:
+                    value = reader.readDateMilliseconds();
+                    break;
+                case EncodedType.DATE_USECONDS:
+                    value = reader.readDateMicroseconds();
+                    break;
+                default:
+                    throw new IllegalStateException("Expected a date type but got type " + currentType);
+            }
+            isTokenPending = false;
+            return value;
+        }
+
+        /**
+         * @return long[] for integer elements, double[] for floating point elements, boolean[] for booleans.
+         */
+        public @Nonnull Object readPackedArray() throws EndOfDataException {
+            requirePendingToken();
+            if(currentType != EncodedType.PACKED_ARRAY) {
+                throw new IllegalStateException("Expected a packed array type but got type " + currentType);
+            }
+            Object value = reader.readPackedArray();
+            isTokenPending = false;
+            return value;
+        }
+
+        /**
+         * Read the current value as Decoder would, including the entire contents of containers.
+         */
+        public @CheckForNull Object readObject() throws EndOfDataException {
+            requirePendingToken();
+            if(currentType == EncodedType.END_CONTAINER) {
+                throw new IllegalStateException("Unexpected end of container");
+            }
+            Object value = reader.readObject(currentType);
+            isTokenPending = false;
+            return value;
+        }
+
+        /**
+         * Descend into the current LIST or MAP token. Subsequent tokens are the container's contents.
+         */
+        public void enterContainer() {
+            requirePendingToken();
+            if(currentType != EncodedType.LIST && currentType != EncodedType.MAP) {
+                throw new IllegalStateException("Expected a container type but got type " + currentType);
+            }
+            isTokenPending = false;
+            depth++;
+        }
+
+        /**
+         * Skip whatever remains of the current container, including its END_CONTAINER marker.
+         */
+        public void exitContainer() throws EndOfDataException {
+            if(depth == 0) {
+                throw new IllegalStateException("Not inside of a container");
+            }
+            for(;;) {
+                int token = isTokenPending ? getToken(currentType) : nextToken();
+                if(token == Token.END_CONTAINER) {
+                    isTokenPending = false;
+                    depth--;
+                    return;
+                }
+                skipValue();
+            }
+        }
+
+        /**
+         * Skip the current value (or the next one if the current value has been consumed),
+         * including the entire contents of containers.
+         */
+        public void skipValue() throws EndOfDataException {
+            if(!isTokenPending && nextToken() == Token.END_OF_DATA) {
+                throw new EndOfDataException();
+            }
+            isTokenPending = false;
+            reader.skipValue(currentType);
+        }
     }
 }
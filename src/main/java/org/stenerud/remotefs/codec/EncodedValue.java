@@ -0,0 +1,152 @@
+package org.stenerud.remotefs.codec;
+
+import org.stenerud.remotefs.message.Message;
+import org.stenerud.remotefs.message.Specification;
+import org.stenerud.remotefs.utility.BinaryBuffer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.logging.Logger;
+
+/**
+ * A single value in its encoded form. Encoder.writeObject() copies the encoded bytes into its output as they
+ * are, so a value that is sent many times only needs to be encoded once. It can also be used as a message
+ * parameter, where it takes the type of the value it holds.
+ */
+public class EncodedValue implements Message.TypedValue {
+    private static final Logger LOG = Logger.getLogger(EncodedValue.class.getName());
+
+    private final BinaryBuffer encoded;
+
+    private EncodedValue(@Nonnull BinaryBuffer encoded) {
+        this.encoded = encoded;
+    }
+
+    /**
+     * Encode a value.
+     */
+    public static @Nonnull EncodedValue of(@CheckForNull Object value) {
+        return of(value, BinaryCodec.Encoder.Profile.COMPACT);
+    }
+
+    /**
+     * Encode a value with the given profile.
+     */
+    public static @Nonnull EncodedValue of(@CheckForNull Object value, @Nonnull BinaryCodec.Encoder.Profile profile) {
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(BinaryCodec.sizeOf(value));
+        encoder.setProfile(profile);
+        try {
+            encoder.writeObject(value);
+        } catch(BinaryCodec.NoRoomException e) {
+            throw new IllegalStateException("Growing encoder ran out of room", e);
+        }
+        return new EncodedValue(encoder.newView());
+    }
+
+    /**
+     * Wrap data that has already been encoded. The data is not copied, and must not be modified afterwards.
+     * @throws IllegalArgumentException if the data isn't exactly one complete value.
+     */
+    public static @Nonnull EncodedValue wrap(@Nonnull BinaryBuffer encoded) {
+        BinaryCodec.StructuralScanner scanner = new BinaryCodec.StructuralScanner(encoded);
+        try {
+            scanner.skipValue();
+        } catch(BinaryCodec.EndOfDataException e) {
+            throw new IllegalArgumentException("Encoded value is incomplete", e);
+        } catch(IllegalStateException e) {
+            throw new IllegalArgumentException("Encoded value is invalid", e);
+        }
+        if(scanner.hasNext()) {
+            throw new IllegalArgumentException("Data continues after the encoded value");
+        }
+        return new EncodedValue(encoded);
+    }
+
+    public @Nonnull BinaryBuffer getEncoded() {
+        return encoded;
+    }
+
+    public int getEncodedLength() {
+        return encoded.length;
+    }
+
+    /**
+     * @return The value, decoded.
+     */
+    public @CheckForNull Object decode() {
+        Object[] holder = new Object[1];
+        try {
+            new BinaryCodec.Decoder(value -> holder[0] = value).feed(encoded);
+        } catch(BinaryCodec.EndOfDataException e) {
+            throw new IllegalStateException("Encoded value is incomplete", e);
+        }
+        return holder[0];
+    }
+
+    /**
+     * @return The message parameter type of the encoded value. Packed arrays have no parameter type, and count as ANY.
+     */
+    @Override
+    public @Nonnull Specification.Type getType() {
+        int type = encoded.get(encoded.startOffset);
+        switch(type) {
+            case BinaryCodec.EncodedType.TRUE:
+            case BinaryCodec.EncodedType.FALSE:
+                return Specification.Type.BOOLEAN;
+            case BinaryCodec.EncodedType.INT16:
+            case BinaryCodec.EncodedType.INT24:
+            case BinaryCodec.EncodedType.INT32:
+            case BinaryCodec.EncodedType.INT40:
+            case BinaryCodec.EncodedType.INT48:
+            case BinaryCodec.EncodedType.INT56:
+            case BinaryCodec.EncodedType.INT64:
+                return Specification.Type.INTEGER;
+            case BinaryCodec.EncodedType.FLOAT32:
+            case BinaryCodec.EncodedType.FLOAT64:
+                return Specification.Type.FLOAT;
+            case BinaryCodec.EncodedType.DECIMAL128:
+                return Specification.Type.DECIMAL;
+            case BinaryCodec.EncodedType.STRING:
+                return Specification.Type.STRING;
+            case BinaryCodec.EncodedType.BYTES:
+                return Specification.Type.BYTES;
+            case BinaryCodec.EncodedType.DATE_DAYS:
+            case BinaryCodec.EncodedType.DATE_SECONDS:
+            case BinaryCodec.EncodedType.DATE_MSECONDS:
+            case BinaryCodec.EncodedType.DATE_USECONDS:
+                return Specification.Type.DATE;
+            case BinaryCodec.EncodedType.LIST:
+                return Specification.Type.LIST;
+            case BinaryCodec.EncodedType.MAP:
+                return Specification.Type.MAP;
+            case BinaryCodec.EncodedType.EMPTY:
+                return Specification.Type.NULL;
+            case BinaryCodec.EncodedType.PACKED_ARRAY:
+                return Specification.Type.ANY;
+            default:
+                // Everything else is a small integer.
+                return Specification.Type.INTEGER;
+        }
+    }
+
+    @Override
+    public boolean equals(@CheckForNull Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof EncodedValue)) {
+            return false;
+        }
+        return encoded.equals(((EncodedValue)o).encoded);
+    }
+
+    @Override
+    public int hashCode() {
+        return encoded.hashCode();
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return "EncodedValue{type=" + getType() + ", length=" + encoded.length + "}";
+    }
+}
@@ -0,0 +1,127 @@
+package org.stenerud.remotefs.codec;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Logger;
+
+/**
+ * A bounded cache of encoded values, for values that are sent over and over.
+ * Values are looked up by equality, so they must not be modified while cached.
+ * When either the entry count or the total encoded length goes over its limit, the least recently
+ * used entries are evicted. Values that are larger than the whole cache are encoded but not cached.
+ * Safe for use by multiple threads.
+ */
+public class EncodedValueCache {
+    private static final Logger LOG = Logger.getLogger(EncodedValueCache.class.getName());
+
+    private final int maxEntryCount;
+    private final long maxByteCount;
+    // In access order, least recently used first.
+    private final LinkedHashMap<Object, EncodedValue> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long byteCount;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param maxEntryCount The maximum number of values to keep.
+     * @param maxByteCount The maximum total encoded length of the values kept.
+     */
+    public EncodedValueCache(int maxEntryCount, long maxByteCount) {
+        if(maxEntryCount < 1) {
+            throw new IllegalArgumentException("Invalid max entry count: " + maxEntryCount);
+        }
+        if(maxByteCount < 1) {
+            throw new IllegalArgumentException("Invalid max byte count: " + maxByteCount);
+        }
+        this.maxEntryCount = maxEntryCount;
+        this.maxByteCount = maxByteCount;
+    }
+
+    /**
+     * Get the encoded form of a value, encoding and caching it if necessary.
+     */
+    public @Nonnull EncodedValue get(@CheckForNull Object value) {
+        synchronized(entries) {
+            EncodedValue encodedValue = entries.get(value);
+            if(encodedValue != null) {
+                hitCount++;
+                return encodedValue;
+            }
+            missCount++;
+        }
+        // Encode outside the lock. If another thread encodes the same value meanwhile, the last one in wins.
+        EncodedValue encodedValue = EncodedValue.of(value);
+        if(encodedValue.getEncodedLength() > maxByteCount) {
+            return encodedValue;
+        }
+        synchronized(entries) {
+            EncodedValue previous = entries.put(value, encodedValue);
+            if(previous != null) {
+                byteCount -= previous.getEncodedLength();
+            }
+            byteCount += encodedValue.getEncodedLength();
+            evictOverflow();
+        }
+        return encodedValue;
+    }
+
+    private void evictOverflow() {
+        Iterator<EncodedValue> iterator = entries.values().iterator();
+        while(entries.size() > maxEntryCount || byteCount > maxByteCount) {
+            byteCount -= iterator.next().getEncodedLength();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    public void clear() {
+        synchronized(entries) {
+            entries.clear();
+            byteCount = 0;
+        }
+    }
+
+    public int getEntryCount() {
+        synchronized(entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return The total encoded length of the cached values.
+     */
+    public long getByteCount() {
+        synchronized(entries) {
+            return byteCount;
+        }
+    }
+
+    public long getHitCount() {
+        synchronized(entries) {
+            return hitCount;
+        }
+    }
+
+    public long getMissCount() {
+        synchronized(entries) {
+            return missCount;
+        }
+    }
+
+    public long getEvictionCount() {
+        synchronized(entries) {
+            return evictionCount;
+        }
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        synchronized(entries) {
+            return "EncodedValueCache{entries=" + entries.size() + ", bytes=" + byteCount + ", hits=" + hitCount
+                    + ", misses=" + missCount + ", evictions=" + evictionCount + "}";
+        }
+    }
+}
@@ -37,9 +37,13 @@ public interface IntegerCodec {
             return MASKS[1];
         }
 
+        public static int requiredEncodingLength(int value) {
+            return (value<<1) > 0xff ? 2 : 1;
+        }
+
         @Override
         public int getRequiredEncodingLength(int value) {
-            return (value<<1) > 0xff ? 2 : 1;
+            return requiredEncodingLength(value);
         }
 
         @Override
@@ -98,9 +102,13 @@ public interface IntegerCodec {
             return MASKS[1];
         }
 
+        public static int requiredEncodingLength(int value) {
+            return (value<<1) > 0xff ? 3 : 1;
+        }
+
         @Override
         public int getRequiredEncodingLength(int value) {
-            return (value<<1) > 0xff ? 3 : 1;
+            return requiredEncodingLength(value);
         }
 
         @Override
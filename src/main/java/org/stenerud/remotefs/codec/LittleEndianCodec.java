@@ -8,15 +8,23 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.logging.Logger;
 
+/**
+ * Reads and writes little endian values at absolute offsets in a buffer.
+ *
+ * 24, 48 and 56-bit integers are decoded with a single 32 or 64-bit load that is shifted to discard
+ * the bytes past the value, as long as the buffer extends that far. Values at the very end of a buffer,
+ * and 40-bit integers (where a wide load measured no faster), are assembled from smaller loads.
+ * Encoding never writes past the end of a value, since the encoder may already have written what follows.
+ */
 public class LittleEndianCodec {
     private static final Logger LOG = Logger.getLogger(LittleEndianCodec.class.getName());
-    private final BinaryBuffer buffer;
     private final ByteBuffer byteBuffer;
+    private final int endOffset;
 
     public LittleEndianCodec(BinaryBuffer buffer) {
-        this.buffer = buffer;
-        this.byteBuffer = ByteBuffer.wrap(buffer.data, buffer.startOffset, buffer.length);
+        this.byteBuffer = buffer.asByteBuffer();
         this.byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.endOffset = buffer.endOffset;
     }
 
     public int encodeInt8(int offset, int value) {
@@ -78,8 +86,28 @@ public class LittleEndianCodec {
         return encodeInt64(offset, Double.doubleToLongBits(value));
     }
 
+    public int encodeInt32Array(int offset, @Nonnull int[] values) {
+        viewAt(offset).asIntBuffer().put(values);
+        return values.length * 4;
+    }
+
+    public int encodeInt64Array(int offset, @Nonnull long[] values) {
+        viewAt(offset).asLongBuffer().put(values);
+        return values.length * 8;
+    }
+
+    public int encodeFloat32Array(int offset, @Nonnull float[] values) {
+        viewAt(offset).asFloatBuffer().put(values);
+        return values.length * 4;
+    }
+
+    public int encodeFloat64Array(int offset, @Nonnull double[] values) {
+        viewAt(offset).asDoubleBuffer().put(values);
+        return values.length * 8;
+    }
+
     public int decodeInt8(int offset) {
-        return buffer.data[offset];
+        return byteBuffer.get(offset);
     }
 
     private long decodeInt8Long(int offset) {
@@ -95,6 +123,13 @@ public class LittleEndianCodec {
     }
 
     public int decodeInt24(int offset) {
+        if(offset + 4 <= endOffset) {
+            return (byteBuffer.getInt(offset) << 8) >> 8;
+        }
+        return decodeInt24Split(offset);
+    }
+
+    private int decodeInt24Split(int offset) {
         return (decodeInt16(offset) & 0xffff) | (decodeInt8(offset + 2) << 16);
     }
 
@@ -111,11 +146,25 @@ public class LittleEndianCodec {
     }
 
     public long decodeInt48(int offset) {
+        if(offset + 8 <= endOffset) {
+            return (byteBuffer.getLong(offset) << 16) >> 16;
+        }
+        return decodeInt48Split(offset);
+    }
+
+    private long decodeInt48Split(int offset) {
         return (decodeInt32Long(offset) & 0xffffffffL) | (decodeInt16Long(offset + 4) << 32);
     }
 
     public long decodeInt56(int offset) {
-        return (decodeInt48(offset) & 0xffffffffffffL) | (decodeInt8Long(offset + 6) << 48);
+        if(offset + 8 <= endOffset) {
+            return (byteBuffer.getLong(offset) << 8) >> 8;
+        }
+        return decodeInt56Split(offset);
+    }
+
+    private long decodeInt56Split(int offset) {
+        return (decodeInt48Split(offset) & 0xffffffffffffL) | (decodeInt8Long(offset + 6) << 48);
     }
 
     public long decodeInt64(int offset) {
@@ -134,4 +183,18 @@ public class LittleEndianCodec {
     public double decodeFloat64(int offset) {
         return Double.longBitsToDouble(decodeInt64(offset));
     }
+
+    public void decodeInt64Array(int offset, @Nonnull long[] values) {
+        viewAt(offset).asLongBuffer().get(values);
+    }
+
+    public void decodeFloat64Array(int offset, @Nonnull double[] values) {
+        viewAt(offset).asDoubleBuffer().get(values);
+    }
+
+    private @Nonnull ByteBuffer viewAt(int offset) {
+        ByteBuffer view = byteBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(offset);
+        return view;
+    }
 }
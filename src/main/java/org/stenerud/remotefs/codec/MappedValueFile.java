@@ -0,0 +1,136 @@
+package org.stenerud.remotefs.codec;
+
+import org.stenerud.remotefs.utility.BinaryBuffer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+/**
+ * Reads a file of concatenated top-level values through a memory-mapped window, one value at a time.
+ * Only the window is mapped at any time, so files of any size can be read with constant heap use.
+ * The window moves forward as values are read, and grows if a single value doesn't fit in it.
+ *
+ * Returned buffers and lazily decoded containers refer to the mapping they came from, which stays
+ * valid for as long as they are reachable.
+ */
+public class MappedValueFile implements Closeable {
+    private static final Logger LOG = Logger.getLogger(MappedValueFile.class.getName());
+    public static final int DEFAULT_WINDOW_LENGTH = 64 * 1024 * 1024;
+    private static final int MAX_WINDOW_LENGTH = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final long fileLength;
+    private final int windowLength;
+    private final BinaryCodec.Decoder decoder;
+    private BinaryBuffer window;
+    private long windowPosition;
+    private BinaryCodec.StructuralScanner scanner;
+    private Object decodedValue;
+
+    public MappedValueFile(@Nonnull Path path) throws IOException {
+        this(path, DEFAULT_WINDOW_LENGTH, false);
+    }
+
+    /**
+     * @param windowLength The number of bytes to map at a time.
+     * @param lazyContainers If true, lists and maps are decoded lazily (see BinaryCodec.Decoder).
+     */
+    public MappedValueFile(@Nonnull Path path, int windowLength, boolean lazyContainers) throws IOException {
+        if(windowLength < 1) {
+            throw new IllegalArgumentException("Invalid window length: " + windowLength);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.fileLength = channel.size();
+        this.windowLength = windowLength;
+        this.decoder = new BinaryCodec.Decoder(value -> decodedValue = value, null, lazyContainers);
+        try {
+            mapWindow(0, (int)Math.min(fileLength, windowLength));
+        } catch(IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public boolean hasNext() {
+        return getPosition() < fileLength;
+    }
+
+    /**
+     * @return The file position of the next value.
+     */
+    public long getPosition() {
+        return windowPosition + (scanner.getCurrentOffset() - window.startOffset);
+    }
+
+    /**
+     * @return A view of the next value's encoded bytes.
+     * @throws BinaryCodec.EndOfDataException if the file ends partway through the value.
+     */
+    public @Nonnull BinaryBuffer nextEncoded() throws IOException {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        for(;;) {
+            try {
+                return scanner.nextValue();
+            } catch(BinaryCodec.EndOfDataException e) {
+                moveWindowToPosition(e);
+            }
+        }
+    }
+
+    /**
+     * @return The next value, decoded.
+     * @throws BinaryCodec.EndOfDataException if the file ends partway through the value.
+     */
+    public @CheckForNull Object next() throws IOException {
+        decoder.feed(nextEncoded());
+        Object value = decodedValue;
+        decodedValue = null;
+        return value;
+    }
+
+    /**
+     * Report all remaining values to a visitor.
+     */
+    public void visitRemaining(@Nonnull BinaryCodec.Decoder.Visitor visitor) throws IOException {
+        while(hasNext()) {
+            visitor.onValue(next());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void moveWindowToPosition(@Nonnull BinaryCodec.EndOfDataException cause) throws IOException {
+        long position = getPosition();
+        long remaining = fileLength - position;
+        if(windowPosition + window.length >= fileLength) {
+            throw cause;
+        }
+        int length = windowLength;
+        if(position == windowPosition) {
+            // The value doesn't fit in a whole window.
+            if(window.length == MAX_WINDOW_LENGTH) {
+                throw new IllegalStateException("Value at position " + position + " is larger than the maximum window length");
+            }
+            length = (int)Math.min((long)window.length * 2, MAX_WINDOW_LENGTH);
+        }
+        mapWindow(position, (int)Math.min(remaining, length));
+    }
+
+    private void mapWindow(long position, int length) throws IOException {
+        window = BinaryBuffer.map(channel, FileChannel.MapMode.READ_ONLY, position, length);
+        windowPosition = position;
+        scanner = new BinaryCodec.StructuralScanner(window);
+    }
+}
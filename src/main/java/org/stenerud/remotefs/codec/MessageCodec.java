@@ -4,10 +4,12 @@ import org.stenerud.remotefs.message.Message;
 import org.stenerud.remotefs.message.MessageBuilder;
 import org.stenerud.remotefs.utility.BinaryBuffer;
 import org.stenerud.remotefs.utility.StrictMap;
+import org.stenerud.remotefs.utility.StringCache;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -41,36 +43,64 @@ public class MessageCodec {
     }
     private final Map<String, Integer> identifierToType = StrictMap.withImplementation(HashMap::new).withErrorFormat("No message type registered for specification %s");
     private final Map<Integer, MessageBuilder> typeToBuilder = StrictMap.withImplementation(HashMap::new).withErrorFormat("No specification registered for message type %s");
+    private final Map<String, SpecificationCodec> identifierToCodec = StrictMap.withImplementation(HashMap::new).withErrorFormat("No message type registered for specification %s");
+    private final Map<Integer, SpecificationCodec> typeToCodec = StrictMap.withImplementation(HashMap::new).withErrorFormat("No specification registered for message type %s");
 
     public static final int MAX_MESSAGE_TYPE = IntegerCodec.OneTwo.MAX_VALUE;
+    private volatile StringCache stringCache;
 
     public void registerBuilder(@Nonnull MessageBuilder builder, int type) {
         if(type > MAX_MESSAGE_TYPE) {
             throw new IllegalArgumentException("Message type " + type + " is outside of allowed range");
         }
+        SpecificationCodec codec = new SpecificationCodec(builder.getSpecification());
         identifierToType.put(builder.getIdentifier(), type);
         typeToBuilder.put(type, builder);
+        identifierToCodec.put(builder.getIdentifier(), codec);
+        typeToCodec.put(type, codec);
+    }
+
+    /**
+     * Use a cache for strings decoded from messages, or null for none.
+     */
+    public void setStringCache(@Nullable StringCache stringCache) {
+        this.stringCache = stringCache;
+    }
+
+    public @Nullable StringCache getStringCache() {
+        return stringCache;
     }
 
     public class Encoder {
         private final Message message;
+        private final SpecificationCodec codec;
         private final BinaryCodec.Encoder binaryEncoder;
         private final BinaryBuffer buffer;
         private final BinaryBuffer offsetView;
         public Encoder(@Nonnull Message message, @Nonnull BinaryBuffer buffer) throws BinaryCodec.NoRoomException {
+            this(message, buffer, BinaryCodec.Encoder.Profile.COMPACT);
+        }
+
+        /**
+         * @param profile How the message's parameters are encoded.
+         */
+        public Encoder(@Nonnull Message message, @Nonnull BinaryBuffer buffer, @Nonnull BinaryCodec.Encoder.Profile profile) throws BinaryCodec.NoRoomException {
+            this(message, buffer, IntegerCodec.OneTwo.MAX_LENGTH + IntegerCodec.OneThree.MAX_LENGTH, profile);
+        }
+
+        private Encoder(@Nonnull Message message, @Nonnull BinaryBuffer buffer, int contentsOffset, @Nonnull BinaryCodec.Encoder.Profile profile) throws BinaryCodec.NoRoomException {
             this.message = message;
+            this.codec = identifierToCodec.get(message.getIdentifier());
             this.buffer = buffer;
             message.verifyCompleteness();
-            final int maxContentsOffset = IntegerCodec.OneTwo.MAX_LENGTH + IntegerCodec.OneThree.MAX_LENGTH;
-            this.offsetView = buffer.newView(buffer.startOffset + maxContentsOffset);
+            this.offsetView = buffer.newView(buffer.startOffset + contentsOffset);
             binaryEncoder = new BinaryCodec.Encoder(offsetView);
+            binaryEncoder.setProfile(profile);
         }
 
         public void writeMessageParameters(int parameterCount) throws BinaryCodec.NoRoomException {
-            Iterator<Object> iterator = message.iterator();
             for(int i = 0; i < parameterCount; i++) {
-                binaryEncoder.writeObject(iterator.next());
-
+                codec.writeParameter(binaryEncoder, message, i);
             }
         }
 
@@ -94,11 +124,45 @@ public class MessageCodec {
     }
 
     public BinaryBuffer encode(@Nonnull Message message, @Nonnull BinaryBuffer buffer) throws BinaryCodec.NoRoomException {
-        Encoder encoder = new Encoder(message, buffer);
+        return encode(message, buffer, BinaryCodec.Encoder.Profile.COMPACT);
+    }
+
+    /**
+     * Encode a message into a buffer, choosing how its parameters are encoded.
+     */
+    public BinaryBuffer encode(@Nonnull Message message, @Nonnull BinaryBuffer buffer, @Nonnull BinaryCodec.Encoder.Profile profile) throws BinaryCodec.NoRoomException {
+        Encoder encoder = new Encoder(message, buffer, profile);
+        encoder.writeMessageParameters(message.getParameterCount());
+        return encoder.completeEncoding();
+    }
+
+    /**
+     * Encode a message into a newly allocated buffer of exactly the encoded size.
+     * The size is calculated for the COMPACT profile, so this always encodes compactly.
+     */
+    public BinaryBuffer encode(@Nonnull Message message) throws BinaryCodec.NoRoomException {
+        message.verifyCompleteness();
+        int contentsLength = identifierToCodec.get(message.getIdentifier()).sizeOf(message);
+        int headerLength = getHeaderLength(identifierToType.get(message.getIdentifier()), contentsLength);
+        Encoder encoder = new Encoder(message, new BinaryBuffer(headerLength + contentsLength), headerLength, BinaryCodec.Encoder.Profile.COMPACT);
         encoder.writeMessageParameters(message.getParameterCount());
         return encoder.completeEncoding();
     }
 
+    /**
+     * Calculate the exact number of bytes encode() will produce for a message, including the length and type header.
+     */
+    public int encodedSize(@Nonnull Message message) {
+        message.verifyCompleteness();
+        int contentsLength = identifierToCodec.get(message.getIdentifier()).sizeOf(message);
+        return getHeaderLength(identifierToType.get(message.getIdentifier()), contentsLength) + contentsLength;
+    }
+
+    private static int getHeaderLength(int type, int contentsLength) {
+        int typeLength = IntegerCodec.OneTwo.requiredEncodingLength(type);
+        return IntegerCodec.OneThree.requiredEncodingLength(contentsLength + typeLength) + typeLength;
+    }
+
     public @Nonnull
     Message decode(@Nonnull BinaryBuffer buffer) throws BinaryCodec.EndOfDataException {
         LittleEndianCodec endianCodec = new LittleEndianCodec(buffer);
@@ -109,10 +173,39 @@ public class MessageCodec {
         offset += typeCodec.getRequiredEncodingLength(type);
         MessageBuilder builder = typeToBuilder.get(type);
         Message message = builder.newMessage();
-        BinaryCodec.Decoder decoder = new BinaryCodec.Decoder(message::add);
-        decoder.feed(buffer.newView(offset));
+        typeToCodec.get(type).readParameters(buffer.newView(offset), message, stringCache);
 
         message.verifyCompleteness();
         return message;
     }
+
+    /**
+     * Extract a value from an encoded message without decoding the rest of it.
+     *
+     * @param parameterName The message parameter to look in.
+     * @param path The path to the value within that parameter (empty for the parameter itself).
+     * @return The value, or null if it isn't present.
+     */
+    public @CheckForNull Object extract(@Nonnull BinaryBuffer buffer, @Nonnull String parameterName, @Nonnull BinaryCodec.ValuePath path) throws BinaryCodec.EndOfDataException {
+        LittleEndianCodec endianCodec = new LittleEndianCodec(buffer);
+        final IntegerCodec lengthCodec = new IntegerCodec.OneThree(endianCodec);
+        final IntegerCodec typeCodec = new IntegerCodec.OneTwo(endianCodec);
+        int offset = buffer.startOffset + lengthCodec.getEncodedLength(buffer.startOffset);
+        int type = typeCodec.decode(offset);
+        offset += typeCodec.getRequiredEncodingLength(type);
+        int parameterIndex = typeToBuilder.get(type).getSpecification().getIndexOf(parameterName);
+
+        BinaryCodec.StructuralScanner scanner = new BinaryCodec.StructuralScanner(buffer.newView(offset));
+        for(int i = 0; i < parameterIndex && scanner.hasNext(); i++) {
+            scanner.skipValue();
+        }
+        if(!scanner.hasNext()) {
+            return null;
+        }
+        return path.extract(buffer.newView(scanner.getCurrentOffset()));
+    }
+
+    public @CheckForNull Object extract(@Nonnull BinaryBuffer buffer, @Nonnull String parameterName, @Nonnull Object... path) throws BinaryCodec.EndOfDataException {
+        return extract(buffer, parameterName, new BinaryCodec.ValuePath(path));
+    }
 }
@@ -0,0 +1,629 @@
+package org.stenerud.remotefs.codec;
+
+import org.stenerud.remotefs.utility.BinaryBuffer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Encodes objects of a plain Java class directly as maps of field name to field value, and decodes them back
+ * from a TokenReader, with no intermediate Map.
+ *
+ * Fields (all non-static, non-transient fields, superclass fields first) are discovered once per class, and
+ * accessed through method handles. Primitive fields are read and written without boxing.
+ * Objects are created through a no-argument constructor if there is one, or otherwise through a constructor
+ * that takes every field in order (such as a record's canonical constructor).
+ *
+ * Fields whose type is another plain class with no registered codec are bound recursively.
+ * Everything else goes through the generic encoder and decoder.
+ */
+public class ObjectBinding<T> implements BinaryCodec.TypeCodec<T> {
+    private static final Logger LOG = Logger.getLogger(ObjectBinding.class.getName());
+    private static final MethodType LONG_GETTER = MethodType.methodType(long.class, Object.class);
+    private static final MethodType LONG_SETTER = MethodType.methodType(void.class, Object.class, long.class);
+    private static final MethodType DOUBLE_GETTER = MethodType.methodType(double.class, Object.class);
+    private static final MethodType DOUBLE_SETTER = MethodType.methodType(void.class, Object.class, double.class);
+    private static final MethodType BOOLEAN_GETTER = MethodType.methodType(boolean.class, Object.class);
+    private static final MethodType BOOLEAN_SETTER = MethodType.methodType(void.class, Object.class, boolean.class);
+    private static final MethodType OBJECT_GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType OBJECT_SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    private static final ClassValue<ObjectBinding<?>> BINDINGS = new ClassValue<ObjectBinding<?>>() {
+        @Override
+        protected ObjectBinding<?> computeValue(Class<?> type) {
+            return new ObjectBinding<>(type);
+        }
+    };
+
+    private final Class<T> type;
+    private final FieldCodec[] fields;
+    // Invoked with no arguments, or with every field value in order (see usesFieldConstructor).
+    private final MethodHandle constructor;
+    private final boolean usesFieldConstructor;
+
+    /**
+     * @return The binding for a class. Field discovery happens only the first time a class is bound.
+     */
+    @SuppressWarnings("unchecked")
+    public static @Nonnull <T> ObjectBinding<T> of(@Nonnull Class<T> type) {
+        return (ObjectBinding<T>)BINDINGS.get(type);
+    }
+
+    /**
+     * Register the binding for a class with BinaryCodec, so that Encoder.writeObject() and sizeOf() handle it.
+     */
+    public static @Nonnull <T> ObjectBinding<T> register(@Nonnull Class<T> type) {
+        ObjectBinding<T> binding = of(type);
+        BinaryCodec.registerTypeCodec(type, binding);
+        return binding;
+    }
+
+    private ObjectBinding(@Nonnull Class<T> type) {
+        if(!isBindable(type)) {
+            throw new IllegalArgumentException(type + " cannot be bound (it must be a concrete, non-JDK class)");
+        }
+        this.type = type;
+        List<Field> declaredFields = getBoundFields(type);
+        Class<?>[] fieldTypes = new Class<?>[declaredFields.size()];
+        for(int i = 0; i < fieldTypes.length; i++) {
+            fieldTypes[i] = declaredFields.get(i).getType();
+        }
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Constructor<T> javaConstructor = findConstructor(type, fieldTypes);
+            usesFieldConstructor = javaConstructor.getParameterCount() > 0;
+            javaConstructor.setAccessible(true);
+            MethodHandle handle = lookup.unreflectConstructor(javaConstructor);
+            constructor = handle.asType(handle.type().changeReturnType(Object.class))
+                    .asSpreader(Object[].class, javaConstructor.getParameterCount());
+
+            fields = new FieldCodec[fieldTypes.length];
+            for(int i = 0; i < fields.length; i++) {
+                Field field = declaredFields.get(i);
+                field.setAccessible(true);
+                MethodHandle getter = lookup.unreflectGetter(field);
+                MethodHandle setter = usesFieldConstructor ? null : lookup.unreflectSetter(field);
+                fields[i] = newFieldCodec(field, getter, setter);
+            }
+        } catch(IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access members of " + type, e);
+        }
+    }
+
+    private static @Nonnull <T> Constructor<T> findConstructor(@Nonnull Class<T> type, @Nonnull Class<?>[] fieldTypes) {
+        try {
+            return type.getDeclaredConstructor();
+        } catch(NoSuchMethodException e) {
+            // Fall back to a record-style constructor.
+        }
+        try {
+            return type.getDeclaredConstructor(fieldTypes);
+        } catch(NoSuchMethodException e) {
+            throw new IllegalArgumentException(type + " needs a no-argument constructor or one that takes every field in order");
+        }
+    }
+
+    private static boolean isBindable(@Nonnull Class<?> type) {
+        String name = type.getName();
+        return !type.isPrimitive() && !type.isArray() && !type.isInterface() && !type.isEnum()
+                && !Modifier.isAbstract(type.getModifiers())
+                && !name.startsWith("java.") && !name.startsWith("javax.");
+    }
+
+    private static @Nonnull List<Field> getBoundFields(@Nonnull Class<?> type) {
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for(Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            hierarchy.add(0, current);
+        }
+        List<Field> fields = new ArrayList<>();
+        for(Class<?> current: hierarchy) {
+            for(Field field: current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if(!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                    fields.add(field);
+                }
+            }
+        }
+        return fields;
+    }
+
+    private static @Nonnull FieldCodec newFieldCodec(@Nonnull Field field, @Nonnull MethodHandle getter, @CheckForNull MethodHandle setter) {
+        Class<?> fieldType = field.getType();
+        if(fieldType == long.class || fieldType == int.class || fieldType == short.class || fieldType == byte.class || fieldType == char.class) {
+            return new LongFieldCodec(field, MethodHandles.explicitCastArguments(getter, LONG_GETTER),
+                    setter == null ? null : MethodHandles.explicitCastArguments(setter, LONG_SETTER));
+        }
+        if(fieldType == double.class || fieldType == float.class) {
+            return new DoubleFieldCodec(field, MethodHandles.explicitCastArguments(getter, DOUBLE_GETTER),
+                    setter == null ? null : MethodHandles.explicitCastArguments(setter, DOUBLE_SETTER));
+        }
+        if(fieldType == boolean.class) {
+            return new BooleanFieldCodec(field, getter.asType(BOOLEAN_GETTER), setter == null ? null : setter.asType(BOOLEAN_SETTER));
+        }
+        return new ObjectFieldCodec(field, getter.asType(OBJECT_GETTER), setter == null ? null : setter.asType(OBJECT_SETTER));
+    }
+
+    public @Nonnull Class<T> getType() {
+        return type;
+    }
+
+    @Override
+    public int write(@Nonnull BinaryCodec.Encoder encoder, @Nonnull T value) throws BinaryCodec.NoRoomException {
+        int length = encoder.beginMap();
+        for(FieldCodec field: fields) {
+            length += encoder.writeUtf8String(field.encodedName);
+            length += field.write(encoder, value);
+        }
+        return length + encoder.endContainer();
+    }
+
+    @Override
+    public int sizeOf(@Nonnull T value) {
+        int length = 2;
+        for(FieldCodec field: fields) {
+            length += field.encodedNameLength + field.sizeOf(value);
+        }
+        return length;
+    }
+
+    /**
+     * Decode a single object from a buffer.
+     */
+    public @CheckForNull T decode(@Nonnull BinaryBuffer buffer) throws BinaryCodec.EndOfDataException {
+        BinaryCodec.TokenReader reader = new BinaryCodec.TokenReader(buffer);
+        if(reader.nextToken() == BinaryCodec.TokenReader.Token.END_OF_DATA) {
+            throw new BinaryCodec.EndOfDataException();
+        }
+        return read(reader);
+    }
+
+    /**
+     * Read an object from the reader's current token, which must be a map (or empty, for null).
+     * Map entries that don't match a field are skipped. Fields with no entry keep their initial value.
+     */
+    public @CheckForNull T read(@Nonnull BinaryCodec.TokenReader reader) throws BinaryCodec.EndOfDataException {
+        int encodedType = reader.getEncodedType();
+        if(encodedType == BinaryCodec.EncodedType.EMPTY) {
+            reader.skipValue();
+            return null;
+        }
+        if(encodedType != BinaryCodec.EncodedType.MAP) {
+            throw new IllegalStateException("Expected a map for " + type.getName() + " but got type " + encodedType);
+        }
+        reader.enterContainer();
+        Object object = usesFieldConstructor ? null : newInstance(NO_ARGUMENTS);
+        Object[] fieldValues = usesFieldConstructor ? newDefaultFieldValues() : null;
+        int nextFieldIndex = 0;
+        while(reader.nextToken() != BinaryCodec.TokenReader.Token.END_CONTAINER) {
+            if(reader.getEncodedType() != BinaryCodec.EncodedType.STRING) {
+                throw new IllegalStateException("Expected a string key for " + type.getName() + " but got type " + reader.getEncodedType());
+            }
+            int fieldIndex = findField(reader.readBytes(), nextFieldIndex);
+            if(reader.nextToken() == BinaryCodec.TokenReader.Token.END_CONTAINER) {
+                throw new IllegalStateException("Map for " + type.getName() + " has a key with no value");
+            }
+            if(fieldIndex < 0) {
+                reader.skipValue();
+                continue;
+            }
+            if(usesFieldConstructor) {
+                fieldValues[fieldIndex] = fields[fieldIndex].readValue(reader);
+            } else {
+                fields[fieldIndex].read(reader, object);
+            }
+            nextFieldIndex = fieldIndex + 1;
+        }
+        reader.exitContainer();
+        if(usesFieldConstructor) {
+            object = newInstance(fieldValues);
+        }
+        return type.cast(object);
+    }
+
+    private int findField(@Nonnull BinaryBuffer encodedName, int expectedIndex) {
+        // Objects are usually encoded in field order, so the expected field is checked first.
+        if(expectedIndex < fields.length && fields[expectedIndex].encodedName.equals(encodedName)) {
+            return expectedIndex;
+        }
+        for(int i = 0; i < fields.length; i++) {
+            if(fields[i].encodedName.equals(encodedName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private @Nonnull Object[] newDefaultFieldValues() {
+        Object[] values = new Object[fields.length];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = fields[i].getDefaultValue();
+        }
+        return values;
+    }
+
+    private @Nonnull Object newInstance(@Nonnull Object[] arguments) {
+        try {
+            return (Object)constructor.invokeExact(arguments);
+        } catch(RuntimeException | Error e) {
+            throw e;
+        } catch(Throwable t) {
+            throw new IllegalStateException("Could not create " + type.getName(), t);
+        }
+    }
+
+    private static @Nonnull IllegalStateException newAccessException(@Nonnull Field field, @Nonnull Throwable cause) {
+        return new IllegalStateException("Could not access field " + field, cause);
+    }
+
+    private static abstract class FieldCodec {
+        final Field field;
+        final BinaryBuffer encodedName;
+        final int encodedNameLength;
+
+        FieldCodec(@Nonnull Field field) {
+            this.field = field;
+            this.encodedName = new BinaryBuffer(field.getName().getBytes(StandardCharsets.UTF_8));
+            this.encodedNameLength = BinaryCodec.sizeOf(field.getName());
+        }
+
+        abstract int write(@Nonnull BinaryCodec.Encoder encoder, @Nonnull Object object) throws BinaryCodec.NoRoomException;
+
+        abstract int sizeOf(@Nonnull Object object);
+
+        /**
+         * Read the reader's current value into the field.
+         */
+        abstract void read(@Nonnull BinaryCodec.TokenReader reader, @Nonnull Object object) throws BinaryCodec.EndOfDataException;
+
+        /**
+         * Read the reader's current value, converted to the field's type and boxed.
+         */
+        abstract @CheckForNull Object readValue(@Nonnull BinaryCodec.TokenReader reader) throws BinaryCodec.EndOfDataException;
+
+        @CheckForNull Object getDefaultValue() {
+            return null;
+        }
+    }
+
+    private static class LongFieldCodec extends FieldCodec {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        LongFieldCodec(@Nonnull Field field, @Nonnull MethodHandle getter, @CheckForNull MethodHandle setter) {
+            super(field);
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        private long get(@Nonnull Object object) {
+            try {
+                return (long)getter.invokeExact(object);
+            } catch(Throwable t) {
+                throw newAccessException(field, t);
+            }
+        }
+
+        @Override
+        int write(@Nonnull BinaryCodec.Encoder encoder, @Nonnull Object object) throws BinaryCodec.NoRoomException {
+            return encoder.writeLong(get(object));
+        }
+
+        @Override
+        int sizeOf(@Nonnull Object object) {
+            return BinaryCodec.getIntegerEncodedLength(get(object));
+        }
+
+        @Override
+        void read(@Nonnull BinaryCodec.TokenReader reader, @Nonnull Object object) throws BinaryCodec.EndOfDataException {
+            long value = reader.readLong();
+            checkIntegerRange(value, field);
+            try {
+                setter.invokeExact(object, value);
+            } catch(Throwable t) {
+                throw newAccessException(field, t);
+            }
+        }
+
+        @Override
+        @Nonnull Object readValue(@Nonnull BinaryCodec.TokenReader reader) throws BinaryCodec.EndOfDataException {
+            return convertInteger(reader.readLong(), field);
+        }
+
+        @Override
+        @Nonnull Object getDefaultValue() {
+            return convertInteger(0, field);
+        }
+    }
+
+    private static class DoubleFieldCodec extends FieldCodec {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        DoubleFieldCodec(@Nonnull Field field, @Nonnull MethodHandle getter, @CheckForNull MethodHandle setter) {
+            super(field);
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        private double get(@Nonnull Object object) {
+            try {
+                return (double)getter.invokeExact(object);
+            } catch(Throwable t) {
+                throw newAccessException(field, t);
+            }
+        }
+
+        @Override
+        int write(@Nonnull BinaryCodec.Encoder encoder, @Nonnull Object object) throws BinaryCodec.NoRoomException {
+            return encoder.writeDouble(get(object));
+        }
+
+        @Override
+        int sizeOf(@Nonnull Object object) {
+            return BinaryCodec.canEncodeAsFloat32(get(object)) ? 5 : 9;
+        }
+
+        @Override
+        void read(@Nonnull BinaryCodec.TokenReader reader, @Nonnull Object object) throws BinaryCodec.EndOfDataException {
+            double value = reader.readDouble();
+            try {
+                setter.invokeExact(object, value);
+            } catch(Throwable t) {
+                throw newAccessException(field, t);
+            }
+        }
+
+        @Override
+        @Nonnull Object readValue(@Nonnull BinaryCodec.TokenReader reader) throws BinaryCodec.EndOfDataException {
+            return convertFloat(reader.readDouble(), field.getType());
+        }
+
+        @Override
+        @Nonnull Object getDefaultValue() {
+            return convertFloat(0, field.getType());
+        }
+    }
+
+    private static class BooleanFieldCodec extends FieldCodec {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        BooleanFieldCodec(@Nonnull Field field, @Nonnull MethodHandle getter, @CheckForNull MethodHandle setter) {
+            super(field);
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        private boolean get(@Nonnull Object object) {
+            try {
+                return (boolean)getter.invokeExact(object);
+            } catch(Throwable t) {
+                throw newAccessException(field, t);
+            }
+        }
+
+        @Override
+        int write(@Nonnull BinaryCodec.Encoder encoder, @Nonnull Object object) throws BinaryCodec.NoRoomException {
+            return encoder.writeBoolean(get(object));
+        }
+
+        @Override
+        int sizeOf(@Nonnull Object object) {
+            return 1;
+        }
+
+        @Override
+        void read(@Nonnull BinaryCodec.TokenReader reader, @Nonnull Object object) {
+            boolean value = reader.readBoolean();
+            try {
+                setter.invokeExact(object, value);
+            } catch(Throwable t) {
+                throw newAccessException(field, t);
+            }
+        }
+
+        @Override
+        @Nonnull Object readValue(@Nonnull BinaryCodec.TokenReader reader) {
+            return reader.readBoolean();
+        }
+
+        @Override
+        @Nonnull Object getDefaultValue() {
+            return false;
+        }
+    }
+
+    private static class ObjectFieldCodec extends FieldCodec {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        private volatile ObjectBinding<Object> nestedBinding;
+        private volatile boolean isNestedBindingResolved;
+
+        ObjectFieldCodec(@Nonnull Field field, @Nonnull MethodHandle getter, @CheckForNull MethodHandle setter) {
+            super(field);
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        private @CheckForNull Object get(@Nonnull Object object) {
+            try {
+                return (Object)getter.invokeExact(object);
+            } catch(Throwable t) {
+                throw newAccessException(field, t);
+            }
+        }
+
+        /**
+         * Resolved on first use rather than on construction, so that classes can refer to themselves.
+         */
+        @SuppressWarnings("unchecked")
+        private @CheckForNull ObjectBinding<Object> getNestedBinding() {
+            if(!isNestedBindingResolved) {
+                Class<?> fieldType = field.getType();
+                BinaryCodec.TypeCodec<Object> codec = BinaryCodec.findTypeCodec(fieldType);
+                if(codec instanceof ObjectBinding) {
+                    nestedBinding = (ObjectBinding<Object>)codec;
+                } else if(codec == null && isBindable(fieldType)) {
+                    nestedBinding = (ObjectBinding<Object>)of(fieldType);
+                }
+                isNestedBindingResolved = true;
+            }
+            return nestedBinding;
+        }
+
+        private @CheckForNull ObjectBinding<Object> getNestedBinding(@Nonnull Object value) {
+            return value.getClass() == field.getType() ? getNestedBinding() : null;
+        }
+
+        @Override
+        int write(@Nonnull BinaryCodec.Encoder encoder, @Nonnull Object object) throws BinaryCodec.NoRoomException {
+            Object value = get(object);
+            if(value == null) {
+                return encoder.writeEmpty();
+            }
+            ObjectBinding<Object> binding = getNestedBinding(value);
+            return binding != null ? binding.write(encoder, value) : encoder.writeObject(value);
+        }
+
+        @Override
+        int sizeOf(@Nonnull Object object) {
+            Object value = get(object);
+            if(value == null) {
+                return 1;
+            }
+            ObjectBinding<Object> binding = getNestedBinding(value);
+            return binding != null ? binding.sizeOf(value) : BinaryCodec.sizeOf(value);
+        }
+
+        @Override
+        void read(@Nonnull BinaryCodec.TokenReader reader, @Nonnull Object object) throws BinaryCodec.EndOfDataException {
+            Object value = readValue(reader);
+            try {
+                setter.invokeExact(object, value);
+            } catch(Throwable t) {
+                throw newAccessException(field, t);
+            }
+        }
+
+        @Override
+        @CheckForNull Object readValue(@Nonnull BinaryCodec.TokenReader reader) throws BinaryCodec.EndOfDataException {
+            ObjectBinding<Object> binding = getNestedBinding();
+            if(binding != null) {
+                return binding.read(reader);
+            }
+            Object value = convertDecoded(reader.readObject(), field);
+            if(value != null && !field.getType().isInstance(value)) {
+                throw new IllegalStateException("Field " + field + " cannot hold decoded " + value.getClass().getName());
+            }
+            return value;
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the field's integer type can't hold the value.
+     */
+    private static void checkIntegerRange(long value, @Nonnull Field field) {
+        Class<?> type = field.getType();
+        long minValue;
+        long maxValue;
+        if(type == int.class || type == Integer.class || type == int[].class) {
+            minValue = Integer.MIN_VALUE;
+            maxValue = Integer.MAX_VALUE;
+        } else if(type == short.class || type == Short.class) {
+            minValue = Short.MIN_VALUE;
+            maxValue = Short.MAX_VALUE;
+        } else if(type == byte.class || type == Byte.class) {
+            minValue = Byte.MIN_VALUE;
+            maxValue = Byte.MAX_VALUE;
+        } else if(type == char.class || type == Character.class) {
+            minValue = Character.MIN_VALUE;
+            maxValue = Character.MAX_VALUE;
+        } else {
+            return;
+        }
+        if(value < minValue || value > maxValue) {
+            throw new IllegalStateException("Field " + field + " cannot hold decoded value " + value);
+        }
+    }
+
+    private static @Nonnull Object convertInteger(long value, @Nonnull Field field) {
+        checkIntegerRange(value, field);
+        Class<?> type = field.getType();
+        if(type == int.class || type == Integer.class) {
+            return (int)value;
+        }
+        if(type == short.class || type == Short.class) {
+            return (short)value;
+        }
+        if(type == byte.class || type == Byte.class) {
+            return (byte)value;
+        }
+        if(type == char.class || type == Character.class) {
+            return (char)value;
+        }
+        return value;
+    }
+
+    private static @Nonnull Object convertFloat(double value, @Nonnull Class<?> type) {
+        if(type == float.class || type == Float.class) {
+            return (float)value;
+        }
+        return value;
+    }
+
+    /**
+     * Convert a value as produced by Decoder to the closest match for a field type.
+     */
+    private static @CheckForNull Object convertDecoded(@CheckForNull Object value, @Nonnull Field field) {
+        Class<?> type = field.getType();
+        if(value instanceof Long) {
+            if(type == Double.class || type == Float.class) {
+                return convertFloat((Long)value, type);
+            }
+            return convertInteger((Long)value, field);
+        }
+        if(value instanceof Double) {
+            return convertFloat((Double)value, type);
+        }
+        if(value instanceof BinaryBuffer && type == byte[].class) {
+            BinaryBuffer buffer = (BinaryBuffer)value;
+            byte[] bytes = new byte[buffer.length];
+            buffer.copyTo(bytes, 0, buffer.startOffset, buffer.length);
+            return bytes;
+        }
+        if(value instanceof Date && type == Instant.class) {
+            return ((Date)value).toInstant();
+        }
+        if(value instanceof Instant && type == Date.class) {
+            return Date.from((Instant)value);
+        }
+        if(value instanceof long[] && type == int[].class) {
+            long[] values = (long[])value;
+            int[] converted = new int[values.length];
+            for(int i = 0; i < values.length; i++) {
+                checkIntegerRange(values[i], field);
+                converted[i] = (int)values[i];
+            }
+            return converted;
+        }
+        return value;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return "ObjectBinding{type=" + type.getName() + ", fields=" + fields.length + "}";
+    }
+}
@@ -0,0 +1,257 @@
+package org.stenerud.remotefs.codec;
+
+import org.stenerud.remotefs.utility.BinaryBuffer;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Decodes buffers of many values on a ForkJoinPool.
+ *
+ * A structural pre-scan (see BinaryCodec.StructuralScanner) finds where each value starts and ends without
+ * decoding anything. Runs of values are then decoded concurrently, and the results are delivered in order.
+ * This works on the top-level values of a buffer, or on the elements of a single top-level list.
+ */
+public class ParallelDecoder {
+    private static final Logger LOG = Logger.getLogger(ParallelDecoder.class.getName());
+    public static final int DEFAULT_RUN_LENGTH = 256;
+    // How many runs per pool thread are decoded before their results are delivered.
+    private static final int RUNS_PER_WINDOW_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+    private final BinaryCodec.Decoder.Options options;
+    private final int runLength;
+
+    public ParallelDecoder() {
+        this(ForkJoinPool.commonPool(), BinaryCodec.Decoder.Options.DEFAULT, DEFAULT_RUN_LENGTH);
+    }
+
+    /**
+     * @param runLength The number of values each task decodes.
+     */
+    public ParallelDecoder(@Nonnull ForkJoinPool pool, @Nonnull BinaryCodec.Decoder.Options options, int runLength) {
+        if(runLength < 1) {
+            throw new IllegalArgumentException("Invalid run length: " + runLength);
+        }
+        this.pool = pool;
+        this.options = options;
+        this.runLength = runLength;
+    }
+
+    /**
+     * Decode every top-level value in a buffer, reporting them to the visitor in order, from the calling thread.
+     * Only a bounded window of decoded values is held at a time.
+     * @throws BinaryCodec.EndOfDataException if the buffer ends partway through a value. No values are reported.
+     */
+    public void decode(@Nonnull BinaryBuffer buffer, @Nonnull BinaryCodec.Decoder.Visitor visitor) throws BinaryCodec.EndOfDataException {
+        int[] offsets = scanValues(buffer);
+        int valueCount = offsets.length - 1;
+        Object[] results = new Object[Math.min(valueCount, runLength * pool.getParallelism() * RUNS_PER_WINDOW_PER_THREAD)];
+        for(int windowStart = 0; windowStart < valueCount; windowStart += results.length) {
+            int windowEnd = Math.min(windowStart + results.length, valueCount);
+            pool.invoke(new RunTask(buffer, offsets, windowStart, windowEnd, results, windowStart));
+            for(int i = 0; i < windowEnd - windowStart; i++) {
+                visitor.onValue(results[i]);
+                results[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Decode a buffer containing a single list, decoding its elements in parallel.
+     * The result is the same as a Decoder would produce: empty elements are left out.
+     * @throws IllegalStateException if the buffer doesn't hold exactly one list.
+     */
+    public @Nonnull List<Object> decodeList(@Nonnull BinaryBuffer buffer) throws BinaryCodec.EndOfDataException {
+        int[] offsets = scanListElements(buffer);
+        Object[] elements = new Object[offsets.length - 1];
+        pool.invoke(new RunTask(buffer, offsets, 0, elements.length, elements, 0));
+        List<Object> list = new ArrayList<>(elements.length);
+        for(Object element: elements) {
+            if(element != null) {
+                list.add(element);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return A spliterator over the top-level values of a buffer, which splits by value boundaries.
+     * @throws BinaryCodec.EndOfDataException if the buffer ends partway through a value.
+     */
+    public static @Nonnull Spliterator<Object> spliterator(@Nonnull BinaryBuffer buffer, @Nonnull BinaryCodec.Decoder.Options options) throws BinaryCodec.EndOfDataException {
+        return new ValueSpliterator(buffer, scanValues(buffer), 0, options);
+    }
+
+    /**
+     * @return A stream of the top-level values of a buffer, which may be made parallel.
+     * @throws BinaryCodec.EndOfDataException if the buffer ends partway through a value.
+     */
+    public static @Nonnull Stream<Object> stream(@Nonnull BinaryBuffer buffer, @Nonnull BinaryCodec.Decoder.Options options) throws BinaryCodec.EndOfDataException {
+        return StreamSupport.stream(spliterator(buffer, options), false);
+    }
+
+    /**
+     * @return The start offset of every top-level value, followed by the end offset of the last.
+     */
+    private static @Nonnull int[] scanValues(@Nonnull BinaryBuffer buffer) throws BinaryCodec.EndOfDataException {
+        OffsetList offsets = new OffsetList();
+        offsets.add(buffer.startOffset);
+        BinaryCodec.StructuralScanner.scan(buffer, (type, startOffset, endOffset) -> offsets.add(endOffset));
+        return offsets.toArray();
+    }
+
+    /**
+     * @return The start offset of every element of the buffer's list, followed by the end offset of the last.
+     */
+    private static @Nonnull int[] scanListElements(@Nonnull BinaryBuffer buffer) throws BinaryCodec.EndOfDataException {
+        if(buffer.length == 0) {
+            throw new BinaryCodec.EndOfDataException();
+        }
+        int type = buffer.get(buffer.startOffset);
+        if(type != BinaryCodec.EncodedType.LIST) {
+            throw new IllegalStateException("Expected a list but got type " + type);
+        }
+        BinaryCodec.StructuralScanner scanner = new BinaryCodec.StructuralScanner(buffer.newView(buffer.startOffset + 1, buffer.endOffset));
+        OffsetList offsets = new OffsetList();
+        offsets.add(scanner.getCurrentOffset());
+        while(scanner.peekType() != BinaryCodec.EncodedType.END_CONTAINER) {
+            scanner.skipValue();
+            offsets.add(scanner.getCurrentOffset());
+        }
+        if(scanner.getCurrentOffset() + 1 != buffer.endOffset) {
+            throw new IllegalStateException("Unexpected data after the list");
+        }
+        return offsets.toArray();
+    }
+
+    private static class OffsetList {
+        private int[] offsets = new int[16];
+        private int size;
+
+        void add(int offset) {
+            if(size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+        }
+
+        @Nonnull int[] toArray() {
+            return Arrays.copyOf(offsets, size);
+        }
+    }
+
+    /**
+     * Decodes values [startIndex, endIndex) into results, starting at results[startIndex - resultsBaseIndex].
+     */
+    private class RunTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BinaryBuffer buffer;
+        private final int[] offsets;
+        private final int startIndex;
+        private final int endIndex;
+        private final Object[] results;
+        private final int resultsBaseIndex;
+
+        RunTask(@Nonnull BinaryBuffer buffer, @Nonnull int[] offsets, int startIndex, int endIndex, @Nonnull Object[] results, int resultsBaseIndex) {
+            this.buffer = buffer;
+            this.offsets = offsets;
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
+            this.results = results;
+            this.resultsBaseIndex = resultsBaseIndex;
+        }
+
+        @Override
+        protected void compute() {
+            if(endIndex - startIndex <= runLength) {
+                decodeRun();
+                return;
+            }
+            int middleIndex = (startIndex + endIndex) >>> 1;
+            invokeAll(new RunTask(buffer, offsets, startIndex, middleIndex, results, resultsBaseIndex),
+                    new RunTask(buffer, offsets, middleIndex, endIndex, results, resultsBaseIndex));
+        }
+
+        private void decodeRun() {
+            int[] resultIndex = {startIndex - resultsBaseIndex};
+            BinaryCodec.Decoder decoder = new BinaryCodec.Decoder(value -> results[resultIndex[0]++] = value, options);
+            try {
+                decoder.feed(buffer.newView(offsets[startIndex], offsets[endIndex]));
+            } catch(BinaryCodec.EndOfDataException e) {
+                throw new IllegalStateException("Value ended early despite being scanned as complete", e);
+            }
+        }
+    }
+
+    private static class ValueSpliterator implements Spliterator<Object> {
+        private final BinaryBuffer buffer;
+        private final int[] offsets;
+        private final BinaryCodec.Decoder.Options options;
+        private final BinaryCodec.Decoder decoder;
+        private int index;
+        private final int endIndex;
+        private Object decodedValue;
+
+        ValueSpliterator(@Nonnull BinaryBuffer buffer, @Nonnull int[] offsets, int index, @Nonnull BinaryCodec.Decoder.Options options) {
+            this(buffer, offsets, index, offsets.length - 1, options);
+        }
+
+        private ValueSpliterator(@Nonnull BinaryBuffer buffer, @Nonnull int[] offsets, int index, int endIndex, @Nonnull BinaryCodec.Decoder.Options options) {
+            this.buffer = buffer;
+            this.offsets = offsets;
+            this.index = index;
+            this.endIndex = endIndex;
+            this.options = options;
+            this.decoder = new BinaryCodec.Decoder(value -> decodedValue = value, options);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Object> action) {
+            if(index >= endIndex) {
+                return false;
+            }
+            try {
+                decoder.feed(buffer.newView(offsets[index], offsets[index + 1]));
+            } catch(BinaryCodec.EndOfDataException e) {
+                throw new IllegalStateException("Value ended early despite being scanned as complete", e);
+            }
+            index++;
+            Object value = decodedValue;
+            decodedValue = null;
+            action.accept(value);
+            return true;
+        }
+
+        @Override
+        public Spliterator<Object> trySplit() {
+            int middleIndex = (index + endIndex) >>> 1;
+            if(middleIndex <= index) {
+                return null;
+            }
+            Spliterator<Object> prefix = new ValueSpliterator(buffer, offsets, index, middleIndex, options);
+            index = middleIndex;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return endIndex - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | IMMUTABLE;
+        }
+    }
+}
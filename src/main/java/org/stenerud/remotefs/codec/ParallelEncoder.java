@@ -0,0 +1,187 @@
+package org.stenerud.remotefs.codec;
+
+import org.stenerud.remotefs.utility.BinaryBuffer;
+import org.stenerud.remotefs.utility.CompositeBuffer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Logger;
+
+/**
+ * Encodes large lists and maps on a ForkJoinPool. Their elements are split into runs, each run is encoded
+ * into its own buffers concurrently, and the results are joined in order into a CompositeBuffer.
+ * The bytes are identical to what BinaryCodec.Encoder.writeObject() would produce.
+ *
+ * Lists and maps (at any depth) with more elements than the run length are split. Anything smaller,
+ * and lists or maps that have a codec of their own registered, are encoded sequentially.
+ */
+public class ParallelEncoder {
+    private static final Logger LOG = Logger.getLogger(ParallelEncoder.class.getName());
+    public static final int DEFAULT_RUN_LENGTH = 4096;
+    private static final int SEGMENT_LENGTH = 64 * 1024;
+    private static final BinaryBuffer LIST_START = new BinaryBuffer(new byte[] {BinaryCodec.EncodedType.LIST});
+    private static final BinaryBuffer MAP_START = new BinaryBuffer(new byte[] {BinaryCodec.EncodedType.MAP});
+    private static final BinaryBuffer CONTAINER_END = new BinaryBuffer(new byte[] {BinaryCodec.EncodedType.END_CONTAINER});
+
+    private final ForkJoinPool pool;
+    private final int runLength;
+    private final BinaryCodec.Encoder.Profile profile;
+
+    public ParallelEncoder() {
+        this(ForkJoinPool.commonPool(), DEFAULT_RUN_LENGTH);
+    }
+
+    /**
+     * @param runLength The number of list elements (or map entries) each task encodes.
+     */
+    public ParallelEncoder(@Nonnull ForkJoinPool pool, int runLength) {
+        this(pool, runLength, BinaryCodec.Encoder.Profile.COMPACT);
+    }
+
+    /**
+     * @param runLength The number of list elements (or map entries) each task encodes.
+     * @param profile How values are encoded.
+     */
+    public ParallelEncoder(@Nonnull ForkJoinPool pool, int runLength, @Nonnull BinaryCodec.Encoder.Profile profile) {
+        if(runLength < 1) {
+            throw new IllegalArgumentException("Invalid run length: " + runLength);
+        }
+        this.pool = pool;
+        this.runLength = runLength;
+        this.profile = profile;
+    }
+
+    public @Nonnull CompositeBuffer encode(@CheckForNull Object value) {
+        if(!isSplittable(value)) {
+            return new CompositeBuffer(encodeSequentially(value));
+        }
+        return new CompositeBuffer(pool.invoke(new RecursiveTask<List<BinaryBuffer>>() {
+            @Override
+            protected List<BinaryBuffer> compute() {
+                return encodeContainer(value);
+            }
+        }));
+    }
+
+    private boolean isSplittable(@CheckForNull Object value) {
+        int size;
+        if(value instanceof List) {
+            size = ((List<?>)value).size();
+        } else if(value instanceof Map) {
+            size = ((Map<?, ?>)value).size();
+        } else {
+            return false;
+        }
+        return size > runLength && BinaryCodec.hasBuiltInContainerCodec(value.getClass());
+    }
+
+    private @Nonnull BinaryCodec.Encoder newEncoder() {
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newChained(SEGMENT_LENGTH);
+        encoder.setProfile(profile);
+        return encoder;
+    }
+
+    private @Nonnull List<BinaryBuffer> encodeSequentially(@CheckForNull Object value) {
+        BinaryCodec.Encoder encoder = newEncoder();
+        try {
+            encoder.writeObject(value);
+        } catch(BinaryCodec.NoRoomException e) {
+            throw new IllegalStateException("Chained encoder ran out of room", e);
+        }
+        return encoder.newCompositeView().segments;
+    }
+
+    /**
+     * Encode a splittable list or map. Must be called from within the pool.
+     */
+    private @Nonnull List<BinaryBuffer> encodeContainer(@Nonnull Object container) {
+        Object[] items;
+        int itemsPerElement;
+        BinaryBuffer start;
+        if(container instanceof List) {
+            items = ((List<?>)container).toArray();
+            itemsPerElement = 1;
+            start = LIST_START;
+        } else {
+            Map<?, ?> map = (Map<?, ?>)container;
+            items = new Object[map.size() * 2];
+            int index = 0;
+            for(Map.Entry<?, ?> entry: map.entrySet()) {
+                items[index++] = entry.getKey();
+                items[index++] = entry.getValue();
+            }
+            itemsPerElement = 2;
+            start = MAP_START;
+        }
+        List<BinaryBuffer> segments = new ArrayList<>();
+        segments.add(start);
+        segments.addAll(new RunTask(items, 0, items.length / itemsPerElement, itemsPerElement).compute());
+        segments.add(CONTAINER_END);
+        return segments;
+    }
+
+    private class RunTask extends RecursiveTask<List<BinaryBuffer>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] items;
+        private final int startElement;
+        private final int endElement;
+        private final int itemsPerElement;
+
+        RunTask(@Nonnull Object[] items, int startElement, int endElement, int itemsPerElement) {
+            this.items = items;
+            this.startElement = startElement;
+            this.endElement = endElement;
+            this.itemsPerElement = itemsPerElement;
+        }
+
+        @Override
+        protected List<BinaryBuffer> compute() {
+            if(endElement - startElement <= runLength) {
+                return encodeRun();
+            }
+            int middleElement = (startElement + endElement) >>> 1;
+            RunTask first = new RunTask(items, startElement, middleElement, itemsPerElement);
+            RunTask second = new RunTask(items, middleElement, endElement, itemsPerElement);
+            first.fork();
+            List<BinaryBuffer> secondSegments = second.compute();
+            List<BinaryBuffer> segments = first.join();
+            segments.addAll(secondSegments);
+            return segments;
+        }
+
+        private @Nonnull List<BinaryBuffer> encodeRun() {
+            List<BinaryBuffer> segments = new ArrayList<>();
+            BinaryCodec.Encoder encoder = null;
+            int endItem = endElement * itemsPerElement;
+            for(int i = startElement * itemsPerElement; i < endItem; i++) {
+                Object item = items[i];
+                if(isSplittable(item)) {
+                    if(encoder != null) {
+                        segments.addAll(encoder.newCompositeView().segments);
+                        encoder = null;
+                    }
+                    segments.addAll(encodeContainer(item));
+                    continue;
+                }
+                if(encoder == null) {
+                    encoder = newEncoder();
+                }
+                try {
+                    encoder.writeObject(item);
+                } catch(BinaryCodec.NoRoomException e) {
+                    throw new IllegalStateException("Chained encoder ran out of room", e);
+                }
+            }
+            if(encoder != null) {
+                segments.addAll(encoder.newCompositeView().segments);
+            }
+            return segments;
+        }
+    }
+}
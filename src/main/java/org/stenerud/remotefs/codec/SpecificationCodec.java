@@ -0,0 +1,139 @@
+package org.stenerud.remotefs.codec;
+
+import org.stenerud.remotefs.message.Message;
+import org.stenerud.remotefs.message.Specification;
+import org.stenerud.remotefs.utility.BinaryBuffer;
+import org.stenerud.remotefs.utility.Decimal128Holder;
+import org.stenerud.remotefs.utility.StringCache;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.logging.Logger;
+
+/**
+ * Encodes and decodes the parameters of messages that follow one specification.
+ *
+ * The codec for each parameter is chosen from its specified type once, when this is created, and parameters
+ * are accessed by position. Encoding a message therefore does no lookups by parameter name or value class.
+ * Parameters of type ANY, streamable parameters, and values that don't have the expected class (such as nulls)
+ * go through the generic path.
+ */
+public class SpecificationCodec {
+    private static final Logger LOG = Logger.getLogger(SpecificationCodec.class.getName());
+
+    private final Specification specification;
+    private final Specification.Type[] types;
+    // Per parameter: the class a value must have to use the specialized codec, or null to always use the generic path.
+    private final Class<?>[] valueClasses;
+    private final BinaryCodec.TypeCodec<Object>[] typeCodecs;
+
+    @SuppressWarnings("unchecked")
+    public SpecificationCodec(@Nonnull Specification specification) {
+        this.specification = specification;
+        int parameterCount = specification.getParameterCount();
+        types = new Specification.Type[parameterCount];
+        valueClasses = new Class<?>[parameterCount];
+        typeCodecs = (BinaryCodec.TypeCodec<Object>[])new BinaryCodec.TypeCodec<?>[parameterCount];
+        for(int i = 0; i < parameterCount; i++) {
+            Specification.ParameterSpecification parameterSpecification = specification.getByIndex(i);
+            types[i] = parameterSpecification.type;
+            if(!parameterSpecification.isStreamable()) {
+                valueClasses[i] = getValueClass(parameterSpecification.type);
+            }
+            if(valueClasses[i] != null) {
+                typeCodecs[i] = BinaryCodec.getTypeCodec(valueClasses[i]);
+            }
+        }
+    }
+
+    /**
+     * @return The class that messages store (and the decoder produces) for values of a type, if there is only one.
+     */
+    private static @CheckForNull Class<?> getValueClass(@Nonnull Specification.Type type) {
+        if(type == Specification.Type.BOOLEAN) {
+            return Boolean.class;
+        }
+        if(type == Specification.Type.INTEGER) {
+            return Long.class;
+        }
+        if(type == Specification.Type.FLOAT) {
+            return Double.class;
+        }
+        if(type == Specification.Type.STRING) {
+            return String.class;
+        }
+        if(type == Specification.Type.DECIMAL) {
+            return Decimal128Holder.class;
+        }
+        return null;
+    }
+
+    public @Nonnull Specification getSpecification() {
+        return specification;
+    }
+
+    private @CheckForNull BinaryCodec.TypeCodec<Object> getTypeCodec(int index, @Nullable Object value) {
+        if(value == null || value.getClass() != valueClasses[index]) {
+            return null;
+        }
+        return typeCodecs[index];
+    }
+
+    public int writeParameter(@Nonnull BinaryCodec.Encoder encoder, @Nonnull Message message, int index) throws BinaryCodec.NoRoomException {
+        Object value = message.getValueAt(index);
+        BinaryCodec.TypeCodec<Object> codec = getTypeCodec(index, value);
+        if(codec == null) {
+            return encoder.writeObject(value);
+        }
+        return codec.write(encoder, value);
+    }
+
+    public int writeParameters(@Nonnull BinaryCodec.Encoder encoder, @Nonnull Message message) throws BinaryCodec.NoRoomException {
+        int length = 0;
+        for(int i = 0; i < types.length; i++) {
+            length += writeParameter(encoder, message, i);
+        }
+        return length;
+    }
+
+    /**
+     * @return The exact number of bytes writeParameters() would write.
+     */
+    public int sizeOf(@Nonnull Message message) {
+        int length = 0;
+        for(int i = 0; i < types.length; i++) {
+            Object value = message.getValueAt(i);
+            BinaryCodec.TypeCodec<Object> codec = getTypeCodec(i, value);
+            length += codec == null ? BinaryCodec.sizeOf(value) : codec.sizeOf(value);
+        }
+        return length;
+    }
+
+    /**
+     * Decode encoded parameters into a message, in specification order.
+     */
+    public void readParameters(@Nonnull BinaryBuffer buffer, @Nonnull Message message, @Nullable StringCache stringCache) throws BinaryCodec.EndOfDataException {
+        new BinaryCodec.Decoder(new ParameterVisitor(message), stringCache).feed(buffer);
+    }
+
+    private class ParameterVisitor implements BinaryCodec.Decoder.Visitor {
+        private final Message message;
+        private int index;
+
+        ParameterVisitor(@Nonnull Message message) {
+            this.message = message;
+        }
+
+        @Override
+        public void onValue(Object value) {
+            if(index < types.length && value != null && value.getClass() == valueClasses[index]) {
+                message.setUncheckedAt(index, types[index], value);
+            } else {
+                // Conversion, validation, and extra parameters are dealt with by the message.
+                message.set(specification.getByIndex(index).name, value);
+            }
+            index++;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.stenerud.remotefs.codec;
+
+import org.stenerud.remotefs.utility.BinaryBuffer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.logging.Logger;
+
+/**
+ * Writes encoded values to an OutputStream or channel through a fixed-size buffer, so that lists and maps
+ * of any length can be generated with constant memory. Values are written as they would be by
+ * BinaryCodec.Encoder. Only a single value larger than the buffer needs more memory, and only while it's written.
+ *
+ * Container nesting is checked when the generator is closed. Closing also closes the destination.
+ */
+public class ValueGenerator implements Closeable, Flushable {
+    private static final Logger LOG = Logger.getLogger(ValueGenerator.class.getName());
+    public static final int DEFAULT_BUFFER_LENGTH = 16 * 1024;
+
+    private final BinaryCodec.Encoder encoder;
+    private final Closeable destination;
+    // Only streams are flushed, since channels have no buffering of their own.
+    private final OutputStream stream;
+    private boolean isClosed;
+
+    public ValueGenerator(@Nonnull OutputStream out) {
+        this(out, DEFAULT_BUFFER_LENGTH);
+    }
+
+    public ValueGenerator(@Nonnull OutputStream out, int bufferLength) {
+        this(data -> data.writeTo(out), out, out, bufferLength);
+    }
+
+    public ValueGenerator(@Nonnull WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_LENGTH);
+    }
+
+    public ValueGenerator(@Nonnull WritableByteChannel channel, int bufferLength) {
+        this(data -> {
+            ByteBuffer byteBuffer = data.asByteBuffer();
+            while(byteBuffer.hasRemaining()) {
+                channel.write(byteBuffer);
+            }
+        }, channel, null, bufferLength);
+    }
+
+    private ValueGenerator(@Nonnull BinaryCodec.Encoder.Sink sink, @Nonnull Closeable destination, @CheckForNull OutputStream stream, int bufferLength) {
+        if(bufferLength < 1) {
+            throw new IllegalArgumentException("Invalid buffer length: " + bufferLength);
+        }
+        this.encoder = BinaryCodec.Encoder.newFlushing(sink, bufferLength);
+        this.destination = destination;
+        this.stream = stream;
+    }
+
+    /**
+     * @return The underlying encoder, for writing values with the full Encoder API.
+     * Its NoRoomExceptions are caused by errors writing to the destination.
+     */
+    public @Nonnull BinaryCodec.Encoder getEncoder() {
+        return encoder;
+    }
+
+    public void writeObject(@CheckForNull Object value) throws IOException {
+        requireOpen();
+        try {
+            encoder.writeObject(value);
+        } catch(BinaryCodec.NoRoomException e) {
+            throw getDestinationException(e);
+        }
+    }
+
+    public void writeString(@Nonnull CharSequence value) throws IOException {
+        requireOpen();
+        try {
+            encoder.writeString(value);
+        } catch(BinaryCodec.NoRoomException e) {
+            throw getDestinationException(e);
+        }
+    }
+
+    public void writeBytes(@Nonnull BinaryBuffer value) throws IOException {
+        requireOpen();
+        try {
+            encoder.writeBytes(value);
+        } catch(BinaryCodec.NoRoomException e) {
+            throw getDestinationException(e);
+        }
+    }
+
+    /**
+     * Start a list. Follow with the list's values, then endContainer().
+     */
+    public void beginList() throws IOException {
+        requireOpen();
+        try {
+            encoder.beginList();
+        } catch(BinaryCodec.NoRoomException e) {
+            throw getDestinationException(e);
+        }
+    }
+
+    /**
+     * Start a map. Follow with alternating keys and values, then endContainer().
+     */
+    public void beginMap() throws IOException {
+        requireOpen();
+        try {
+            encoder.beginMap();
+        } catch(BinaryCodec.NoRoomException e) {
+            throw getDestinationException(e);
+        }
+    }
+
+    /**
+     * End the most recently begun list or map.
+     */
+    public void endContainer() throws IOException {
+        requireOpen();
+        try {
+            encoder.endContainer();
+        } catch(BinaryCodec.NoRoomException e) {
+            throw getDestinationException(e);
+        }
+    }
+
+    /**
+     * @return The number of containers begun but not yet ended.
+     */
+    public int getContainerDepth() {
+        return encoder.getContainerDepth();
+    }
+
+    /**
+     * Write out any buffered data, and flush the destination if it's an OutputStream.
+     */
+    @Override
+    public void flush() throws IOException {
+        requireOpen();
+        encoder.flush();
+        if(stream != null) {
+            stream.flush();
+        }
+    }
+
+    /**
+     * Write out any buffered data and close the destination.
+     * @throws IllegalStateException if any containers were not ended. The destination is still closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if(isClosed) {
+            return;
+        }
+        isClosed = true;
+        try {
+            int depth = encoder.getContainerDepth();
+            if(depth > 0) {
+                throw new IllegalStateException("Closed with " + depth + " container(s) not ended");
+            }
+            encoder.flush();
+        } finally {
+            destination.close();
+        }
+    }
+
+    private void requireOpen() {
+        if(isClosed) {
+            throw new IllegalStateException("Generator is closed");
+        }
+    }
+
+    private static @Nonnull IOException getDestinationException(@Nonnull BinaryCodec.NoRoomException e) {
+        if(e.getCause() instanceof IOException) {
+            return (IOException)e.getCause();
+        }
+        return e;
+    }
+}
@@ -10,6 +10,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
@@ -31,6 +32,7 @@ public class Message implements Iterable<Object> {
         CLASS_TO_TYPE.put(String.class, Specification.Type.STRING);
         CLASS_TO_TYPE.put(Date.class, Specification.Type.DATE);
         CLASS_TO_TYPE.put(Instant.class, Specification.Type.DATE);
+        CLASS_TO_TYPE.put(LocalDate.class, Specification.Type.DATE);
         CLASS_TO_TYPE.put(Decimal128Holder.class, Specification.Type.DECIMAL);
         CLASS_TO_TYPE.put(byte[].class, Specification.Type.BYTES);
         CLASS_TO_TYPE.put(List.class, Specification.Type.LIST);
@@ -40,21 +42,26 @@ public class Message implements Iterable<Object> {
 
     private final Specification specification;
     private final NumericPromoter numericPromoter = new NumericPromoter();
-    private final StrictMap<String, Parameter> parameters = StrictMap.withImplementation(HashMap::new).withErrorFormat("%s: No such parameter");
+    // Indexed by position in the specification. Null for parameters not set yet.
+    private final Parameter[] parameters;
+    private int parameterCount;
     private int specIndex = 0;
 
     @Override
     public @Nonnull Iterator<Object> iterator() {
         return new Iterator<Object>() {
-            private final Iterator<Specification.ParameterSpecification> iter = specification.iterator();
+            private int index;
             @Override
             public boolean hasNext() {
-                return iter.hasNext();
+                return index < parameters.length;
             }
 
             @Override
             public Object next() {
-                return parameters.get(iter.next().name).value;
+                if(index >= parameters.length) {
+                    throw new NoSuchElementException();
+                }
+                return getValueAt(index++);
             }
         };
     }
@@ -70,12 +77,10 @@ public class Message implements Iterable<Object> {
 
     public void verifyCompleteness() {
         StringBuilder builder = new StringBuilder();
-        for(Specification.ParameterSpecification specParam: specification) {
-            try {
-                parameters.get(specParam.name);
-            } catch(NotFoundException e) {
+        for(int i = 0; i < parameters.length; i++) {
+            if(parameters[i] == null) {
                 builder.append(" ");
-                builder.append(specParam.name);
+                builder.append(specification.getByIndex(i).name);
             }
         }
         if(builder.length() > 0) {
@@ -84,7 +89,14 @@ public class Message implements Iterable<Object> {
     }
 
     public int getParameterCount() {
-        return parameters.size();
+        return parameterCount;
+    }
+
+    /**
+     * A value that knows its own parameter type, rather than having it looked up by class.
+     */
+    public interface TypedValue {
+        @Nonnull Specification.Type getType();
     }
 
     public static class Parameter {
@@ -99,6 +111,7 @@ public class Message implements Iterable<Object> {
 
     public Message(@Nonnull Specification specification) {
         this.specification = specification;
+        this.parameters = new Parameter[specification.getParameterCount()];
         for(Specification.ParameterSpecification paramSpec: specification) {
             if(paramSpec.isOptional()) {
                 set(paramSpec.name, null);
@@ -134,21 +147,51 @@ public class Message implements Iterable<Object> {
 
     public @Nonnull
     Message setUnchecked(@Nonnull String name, Specification.Type type, @Nullable Object value) {
-        parameters.put(name, new Parameter(type, value));
+        return setUncheckedAt(specification.getIndexOf(name), type, value);
+    }
+
+    /**
+     * Set the parameter at a position in the specification, without conversion or validation.
+     * The caller must guarantee that the value is valid for the given type.
+     */
+    public @Nonnull
+    Message setUncheckedAt(int index, Specification.Type type, @Nullable Object value) {
+        if(parameters[index] == null) {
+            parameterCount++;
+        }
+        parameters[index] = new Parameter(type, value);
         return this;
+    }
 
+    private @Nonnull Parameter getParameter(@Nonnull String name) {
+        return getParameterAt(specification.getIndexOf(name));
+    }
+
+    private @Nonnull Parameter getParameterAt(int index) {
+        Parameter parameter = parameters[index];
+        if(parameter == null) {
+            throw new NotFoundException(specification.getByIndex(index).name + ": No such parameter");
+        }
+        return parameter;
+    }
+
+    /**
+     * @return The value of the parameter at a position in the specification.
+     */
+    public @Nullable Object getValueAt(int index) {
+        return getParameterAt(index).value;
     }
 
     public boolean isPresent(@Nonnull String parameterName) {
-        return parameters.get(parameterName).value != null;
+        return getParameter(parameterName).value != null;
     }
 
     public boolean isStream(@Nonnull String parameterName) {
-        return parameters.get(parameterName).type.equals(Specification.Type.STREAM);
+        return getParameter(parameterName).type.equals(Specification.Type.STREAM);
     }
 
     public @Nonnull <T> T get(@Nonnull String parameterName, @Nonnull Class<T> cls) {
-        T value = (T)parameters.get(parameterName).value;
+        T value = (T)getParameter(parameterName).value;
         if(value == null) {
             throw new NotFoundException("Parameter " + parameterName + " not found");
         }
@@ -169,10 +212,14 @@ public class Message implements Iterable<Object> {
         }
 
         Specification.Type actualType;
-        try {
-            actualType = getBaseType(value.getClass());
-        } catch(NotFoundException e) {
-            throw new ValidationException(paramSpec.name + ": Could not get type for value " + value + ": " + e.getMessage());
+        if(value instanceof TypedValue) {
+            actualType = ((TypedValue)value).getType();
+        } else {
+            try {
+                actualType = getBaseType(value.getClass());
+            } catch(NotFoundException e) {
+                throw new ValidationException(paramSpec.name + ": Could not get type for value " + value + ": " + e.getMessage());
+            }
         }
 
         if (actualType.equals(paramSpec.type)) {
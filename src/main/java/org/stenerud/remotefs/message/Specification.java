@@ -17,6 +17,7 @@ public class Specification implements Iterable<Specification.ParameterSpecificat
     public final String description;
     private final List<ParameterSpecification> parameterSpecificationsByIndex;
     private final StrictMap<String, ParameterSpecification> parameterSpecificationsByName;
+    private final StrictMap<String, Integer> parameterIndexesByName;
 
     public Specification(@Nonnull String name, @Nonnull String description, @Nonnull ParameterSpecification ... specifications) {
         this(name, description, Arrays.asList(specifications));
@@ -27,8 +28,10 @@ public class Specification implements Iterable<Specification.ParameterSpecificat
         this.description = description;
         parameterSpecificationsByIndex = new ArrayList<>(specifications);
         parameterSpecificationsByName = StrictMap.withImplementation(HashMap::new).withErrorFormat("%s: No such parameter in specification " + name);
+        parameterIndexesByName = StrictMap.withImplementation(HashMap::new).withErrorFormat("%s: No such parameter in specification " + name);
         for(ParameterSpecification spec: specifications) {
             this.parameterSpecificationsByName.put(spec.name, spec);
+            this.parameterIndexesByName.put(spec.name, parameterIndexesByName.size());
         }
     }
 
@@ -40,6 +43,17 @@ public class Specification implements Iterable<Specification.ParameterSpecificat
         return parameterSpecificationsByName.get(name);
     }
 
+    /**
+     * @return The position of the named parameter within a message.
+     */
+    public int getIndexOf(@Nonnull String name) {
+        return parameterIndexesByName.get(name);
+    }
+
+    public int getParameterCount() {
+        return parameterSpecificationsByIndex.size();
+    }
+
     public @Nonnull ParameterSpecification getByIndex(int index) {
         try {
             return parameterSpecificationsByIndex.get(index);
@@ -61,9 +61,7 @@ public class StreamTransport implements AutoCloseable, Transport {
     @Override
     public void sendMessage(@Nonnull Message message) throws IOException {
         try {
-            // TODO: Get this differently
-            BinaryBuffer buffer = new BinaryBuffer(10000);
-            BinaryBuffer encodedView = messageCodec.encode(message, buffer);
+            BinaryBuffer encodedView = messageCodec.encode(message);
             writeBuffer(encodedView);
             if(autoflush) {
                 flush();
@@ -134,7 +132,7 @@ public class StreamTransport implements AutoCloseable, Transport {
     }
 
     private void writeBuffer(BinaryBuffer buffer) throws IOException {
-        outStream.write(buffer.data, buffer.startOffset, buffer.length);
+        buffer.writeTo(outStream);
     }
 
     @Override
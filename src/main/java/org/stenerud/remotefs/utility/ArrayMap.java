@@ -0,0 +1,192 @@
+package org.stenerud.remotefs.utility;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * A compact map that keeps its entries in insertion order in parallel arrays and finds keys by linear search.
+ * For a handful of entries this is smaller and usually faster than a HashMap.
+ */
+public class ArrayMap<K, V> extends AbstractMap<K, V> {
+    private int[] hashes;
+    private Object[] keys;
+    private Object[] values;
+    private int size;
+
+    public ArrayMap() {
+        this(4);
+    }
+
+    public ArrayMap(int capacity) {
+        hashes = new int[capacity];
+        keys = new Object[capacity];
+        values = new Object[capacity];
+    }
+
+    private int indexOf(Object key) {
+        int hash = Objects.hashCode(key);
+        for(int i = 0; i < size; i++) {
+            if(hashes[i] == hash && Objects.equals(keys[i], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int index = indexOf(key);
+        return index >= 0 ? (V)values[index] : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        int index = indexOf(key);
+        if(index >= 0) {
+            V oldValue = (V)values[index];
+            values[index] = value;
+            return oldValue;
+        }
+        if(size == keys.length) {
+            int capacity = Math.max(4, size * 2);
+            hashes = Arrays.copyOf(hashes, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        hashes[size] = Objects.hashCode(key);
+        keys[size] = key;
+        values[size] = value;
+        size++;
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int index = indexOf(key);
+        if(index < 0) {
+            return null;
+        }
+        V oldValue = (V)values[index];
+        removeAt(index);
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    private void removeAt(int index) {
+        int moveCount = size - index - 1;
+        System.arraycopy(hashes, index + 1, hashes, index, moveCount);
+        System.arraycopy(keys, index + 1, keys, index, moveCount);
+        System.arraycopy(values, index + 1, values, index, moveCount);
+        size--;
+        keys[size] = null;
+        values[size] = null;
+    }
+
+    @Override
+    public @Nonnull Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public @Nonnull Iterator<Entry<K, V>> iterator() {
+                return new Iterator<Entry<K, V>>() {
+                    private int nextIndex;
+                    private int lastIndex = -1;
+
+                    @Override
+                    public boolean hasNext() {
+                        return nextIndex < size;
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        if(nextIndex >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        lastIndex = nextIndex++;
+                        return new ArrayEntry(lastIndex);
+                    }
+
+                    @Override
+                    public void remove() {
+                        if(lastIndex < 0) {
+                            throw new IllegalStateException();
+                        }
+                        removeAt(lastIndex);
+                        nextIndex = lastIndex;
+                        lastIndex = -1;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private class ArrayEntry implements Entry<K, V> {
+        private final int index;
+
+        ArrayEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public K getKey() {
+            return (K)keys[index];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V getValue() {
+            return (V)values[index];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V setValue(V value) {
+            V oldValue = (V)values[index];
+            values[index] = value;
+            return oldValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> other = (Entry<?, ?>)o;
+            return Objects.equals(getKey(), other.getKey()) && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
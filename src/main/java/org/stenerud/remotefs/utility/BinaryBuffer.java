@@ -2,33 +2,110 @@ package org.stenerud.remotefs.utility;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Objects;
 import java.util.logging.Logger;
 
+/**
+ * A range of bytes, backed either by a heap array or by a ByteBuffer (direct or memory-mapped).
+ * Offsets are always absolute indexes into the backing storage.
+ */
 public class BinaryBuffer {
     private static final Logger LOG = Logger.getLogger(BinaryBuffer.class.getName());
+    private static final int TRANSFER_CHUNK_LENGTH = 8192;
+    /**
+     * The backing array, or null if this buffer is not on the heap (see hasArray()).
+     */
     public final byte[] data;
+    private final ByteBuffer storage;
     public final int startOffset;
     public final int endOffset;
     public final int length;
 
     public BinaryBuffer(@Nonnull byte[] data, int startOffset, int endOffset) {
+        this(data, null, data.length, startOffset, endOffset);
+    }
+
+    private BinaryBuffer(@CheckForNull byte[] data, @CheckForNull ByteBuffer storage, int capacity, int startOffset, int endOffset) {
         if(startOffset < 0) {
             throw new IndexOutOfBoundsException("Start offset " + startOffset + " is less than 0");
         }
         if(startOffset > endOffset) {
             throw new IndexOutOfBoundsException("Start offset " + startOffset + " is greater than end offset " + endOffset);
         }
-        if(endOffset > data.length) {
-            throw new IndexOutOfBoundsException("End offset " + endOffset + " is greater than data length " + data.length);
+        if(endOffset > capacity) {
+            throw new IndexOutOfBoundsException("End offset " + endOffset + " is greater than data length " + capacity);
         }
         this.data = data;
+        this.storage = storage;
         this.startOffset = startOffset;
         this.endOffset = endOffset;
         this.length = endOffset - startOffset;
     }
 
+    /**
+     * Wrap the remaining bytes of a ByteBuffer (heap, direct, or mapped). Offsets of the resulting buffer are
+     * indexes into byteBuffer. Changes to the position, limit, or byte order of byteBuffer do not affect it.
+     */
+    public static @Nonnull BinaryBuffer wrap(@Nonnull ByteBuffer byteBuffer) {
+        if(byteBuffer.hasArray() && byteBuffer.arrayOffset() == 0 && !byteBuffer.isReadOnly()) {
+            return new BinaryBuffer(byteBuffer.array(), byteBuffer.position(), byteBuffer.limit());
+        }
+        return new BinaryBuffer(null, byteBuffer.duplicate(), byteBuffer.capacity(), byteBuffer.position(), byteBuffer.limit());
+    }
+
+    /**
+     * Allocate a buffer outside of the Java heap.
+     */
+    public static @Nonnull BinaryBuffer newDirect(int length) {
+        return wrap(ByteBuffer.allocateDirect(length));
+    }
+
+    /**
+     * Map a region of a file into memory.
+     */
+    public static @Nonnull BinaryBuffer map(@Nonnull FileChannel channel, @Nonnull FileChannel.MapMode mode, long position, int length) throws IOException {
+        return wrap(channel.map(mode, position, length));
+    }
+
+    /**
+     * @return true if this buffer is backed by the data array.
+     */
+    public boolean hasArray() {
+        return data != null;
+    }
+
+    public boolean isDirect() {
+        return storage != null && storage.isDirect();
+    }
+
+    public byte get(int offset) {
+        return data != null ? data[offset] : storage.get(offset);
+    }
+
+    public void put(int offset, byte value) {
+        if(data != null) {
+            data[offset] = value;
+        } else {
+            storage.put(offset, value);
+        }
+    }
+
+    /**
+     * @return A ByteBuffer sharing this buffer's storage, with its position and limit set to this buffer's
+     * start and end offsets, so that indexes into it are the same as offsets into this buffer.
+     */
+    public @Nonnull ByteBuffer asByteBuffer() {
+        ByteBuffer byteBuffer = data != null ? ByteBuffer.wrap(data) : storage.duplicate();
+        byteBuffer.limit(endOffset);
+        byteBuffer.position(startOffset);
+        return byteBuffer;
+    }
+
     public BinaryBuffer(@Nonnull byte[] data) {
         this(data, 0, data.length);
     }
@@ -55,7 +132,10 @@ public class BinaryBuffer {
         if(endOffset > this.endOffset) {
             throw new IndexOutOfBoundsException("New end offset " + endOffset + " is greater than existing end offset " + this.endOffset);
         }
-        return new BinaryBuffer(data, startOffset, endOffset);
+        if(data != null) {
+            return new BinaryBuffer(data, startOffset, endOffset);
+        }
+        return new BinaryBuffer(null, storage, storage.capacity(), startOffset, endOffset);
     }
 
     public @Nonnull BinaryBuffer newView(int startOffset) {
@@ -80,7 +160,7 @@ public class BinaryBuffer {
         StringBuilder builder = new StringBuilder();
         builder.append("[");
         for(int i = startOffset; i < workingEndOffset; i++) {
-            byte value = data[i];
+            byte value = get(i);
             builder.append(HEX_VALUES[(value >> 4) & 0xf]);
             builder.append(HEX_VALUES[value & 0xf]);
             if(i < endOffset - 1) {
@@ -93,6 +173,11 @@ public class BinaryBuffer {
     }
 
     public @Nonnull String utf8String() {
+        if(data == null) {
+            byte[] bytes = new byte[length];
+            copyTo(bytes, 0, startOffset, length);
+            return new BinaryBuffer(bytes).utf8String();
+        }
         try {
             return new String(data, startOffset, length, "UTF-8");
         } catch (UnsupportedEncodingException e) {
@@ -118,7 +203,26 @@ public class BinaryBuffer {
         if(themStartOffset + length > them.endOffset) {
             throw new IndexOutOfBoundsException("Source start offset " + themStartOffset + " + length " + length + " is beyond end offset " + them.endOffset);
         }
-        copyFrom(them.data, themStartOffset, thisStartOffset, length);
+        if(them.data != null) {
+            copyFrom(them.data, themStartOffset, thisStartOffset, length);
+            return;
+        }
+        if(themStartOffset < them.startOffset) {
+            throw new IndexOutOfBoundsException("Source start offset " + themStartOffset + " is before start offset " + them.startOffset);
+        }
+        if(lengthRemainingFromOffset(thisStartOffset) < length) {
+            throw new IndexOutOfBoundsException("Dst start offset " + thisStartOffset + " + length " + length + " is beyond end offset " + endOffset);
+        }
+        ByteBuffer source = them.asByteBuffer();
+        source.limit(themStartOffset + length);
+        source.position(themStartOffset);
+        if(data != null) {
+            source.get(data, thisStartOffset, length);
+        } else {
+            ByteBuffer destination = asByteBuffer();
+            destination.position(thisStartOffset);
+            destination.put(source);
+        }
     }
 
     public void copyFrom(byte[] srcData, int srcDataStartOffset, int thisStartOffset, int length) {
@@ -128,11 +232,41 @@ public class BinaryBuffer {
         if(lengthRemainingFromOffset(thisStartOffset) < length) {
             throw new IndexOutOfBoundsException("Dst start offset " + thisStartOffset + " + length " + length + " is beyond end offset " + endOffset);
         }
-        int di = thisStartOffset;
-        int dEnd = di + length;
-        int si = srcDataStartOffset;
-        while(di < dEnd) {
-            data[di++] = srcData[si++];
+        if(data != null) {
+            System.arraycopy(srcData, srcDataStartOffset, data, thisStartOffset, length);
+        } else {
+            ByteBuffer destination = asByteBuffer();
+            destination.position(thisStartOffset);
+            destination.put(srcData, srcDataStartOffset, length);
+        }
+    }
+
+    /**
+     * Copy bytes from this buffer into an array.
+     */
+    public void copyTo(@Nonnull byte[] dstData, int dstDataStartOffset, int thisStartOffset, int length) {
+        if(thisStartOffset < startOffset || thisStartOffset + length > endOffset) {
+            throw new IndexOutOfBoundsException("Source start offset " + thisStartOffset + " + length " + length + " is outside of " + startOffset + "-" + endOffset);
+        }
+        if(data != null) {
+            System.arraycopy(data, thisStartOffset, dstData, dstDataStartOffset, length);
+        } else {
+            ByteBuffer source = asByteBuffer();
+            source.position(thisStartOffset);
+            source.get(dstData, dstDataStartOffset, length);
+        }
+    }
+
+    public void writeTo(@Nonnull OutputStream outStream) throws IOException {
+        if(data != null) {
+            outStream.write(data, startOffset, length);
+            return;
+        }
+        byte[] chunk = new byte[Math.min(length, TRANSFER_CHUNK_LENGTH)];
+        for(int offset = startOffset; offset < endOffset; offset += chunk.length) {
+            int chunkLength = Math.min(chunk.length, endOffset - offset);
+            copyTo(chunk, 0, offset, chunkLength);
+            outStream.write(chunk, 0, chunkLength);
         }
     }
 
@@ -151,11 +285,11 @@ public class BinaryBuffer {
         if(this.length != other.length) {
             return false;
         }
-        if(this.startOffset == other.startOffset && this.data == other.data) {
+        if(this.startOffset == other.startOffset && this.data != null && this.data == other.data) {
             return true;
         }
         for(int i = 0; i < this.length; i++) {
-            if(this.data[this.startOffset + i] != other.data[other.startOffset + i]) {
+            if(this.get(this.startOffset + i) != other.get(other.startOffset + i)) {
                 return false;
             }
         }
@@ -166,7 +300,7 @@ public class BinaryBuffer {
     public int hashCode() {
         int result = Objects.hash(startOffset, length);
         for(int offset = startOffset; offset < endOffset; offset++) {
-            result = 31 * data[offset];
+            result = 31 * get(offset);
         }
         return result;
     }
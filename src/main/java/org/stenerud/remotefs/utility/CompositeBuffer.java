@@ -0,0 +1,73 @@
+package org.stenerud.remotefs.utility;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A sequence of buffers that together make up one logical piece of data.
+ */
+public class CompositeBuffer {
+    public final List<BinaryBuffer> segments;
+    public final int length;
+
+    public CompositeBuffer(@Nonnull List<BinaryBuffer> segments) {
+        this.segments = Collections.unmodifiableList(new ArrayList<>(segments));
+        int length = 0;
+        for(BinaryBuffer segment: segments) {
+            length += segment.length;
+        }
+        this.length = length;
+    }
+
+    /**
+     * @return A single buffer containing a copy of all segments.
+     */
+    public @Nonnull BinaryBuffer newCopy() {
+        BinaryBuffer copy = new BinaryBuffer(length);
+        int offset = copy.startOffset;
+        for(BinaryBuffer segment: segments) {
+            copy.copyFrom(segment, segment.startOffset, offset, segment.length);
+            offset += segment.length;
+        }
+        return copy;
+    }
+
+    /**
+     * @return The segments wrapped as byte buffers, suitable for a gathering write.
+     */
+    public @Nonnull ByteBuffer[] toByteBuffers() {
+        ByteBuffer[] byteBuffers = new ByteBuffer[segments.size()];
+        for(int i = 0; i < byteBuffers.length; i++) {
+            byteBuffers[i] = segments.get(i).asByteBuffer();
+        }
+        return byteBuffers;
+    }
+
+    /**
+     * Write all segments to a channel using gathering writes.
+     */
+    public void writeTo(@Nonnull GatheringByteChannel channel) throws IOException {
+        ByteBuffer[] byteBuffers = toByteBuffers();
+        long remaining = length;
+        while(remaining > 0) {
+            remaining -= channel.write(byteBuffers);
+        }
+    }
+
+    public void writeTo(@Nonnull OutputStream outStream) throws IOException {
+        for(BinaryBuffer segment: segments) {
+            segment.writeTo(outStream);
+        }
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return "CompositeBuffer{segments=" + segments.size() + ", length=" + length + "}";
+    }
+}
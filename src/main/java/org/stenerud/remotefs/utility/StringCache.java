@@ -0,0 +1,116 @@
+package org.stenerud.remotefs.utility;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of decoded strings, keyed by their UTF-8 encoding.
+ * A hit returns the cached String without allocating anything.
+ * Entries live in a fixed-size table; a colliding string replaces the previous occupant.
+ * Safe for use by multiple decoders at once.
+ */
+public class StringCache {
+    public static final int DEFAULT_MAX_STRING_LENGTH = 64;
+
+    private static class Entry {
+        final byte[] utf8;
+        final int hash;
+        final String value;
+
+        Entry(byte[] utf8, int hash, String value) {
+            this.utf8 = utf8;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+
+    private final Entry[] entries;
+    private final int mask;
+    private final int maxStringLength;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param capacity The number of entries (rounded up to a power of 2).
+     */
+    public StringCache(int capacity) {
+        this(capacity, DEFAULT_MAX_STRING_LENGTH);
+    }
+
+    /**
+     * @param capacity The number of entries (rounded up to a power of 2).
+     * @param maxStringLength Encoded strings longer than this (in bytes) bypass the cache.
+     */
+    public StringCache(int capacity, int maxStringLength) {
+        if(capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int tableSize = Integer.highestOneBit(capacity);
+        if(tableSize < capacity) {
+            tableSize <<= 1;
+        }
+        this.entries = new Entry[tableSize];
+        this.mask = tableSize - 1;
+        this.maxStringLength = maxStringLength;
+    }
+
+    /**
+     * Get the string represented by some UTF-8 data, creating and caching it if necessary.
+     */
+    public @Nonnull String get(@Nonnull BinaryBuffer utf8) {
+        if(utf8.length > maxStringLength) {
+            return utf8.utf8String();
+        }
+        int hash = hash(utf8);
+        int index = hash & mask;
+        Entry entry = entries[index];
+        if(entry != null && entry.hash == hash && contentEquals(entry.utf8, utf8)) {
+            hitCount.incrementAndGet();
+            return entry.value;
+        }
+        missCount.incrementAndGet();
+        String value = utf8.utf8String();
+        byte[] key = new byte[utf8.length];
+        utf8.copyTo(key, 0, utf8.startOffset, utf8.length);
+        entries[index] = new Entry(key, hash, value);
+        return value;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    private static int hash(@Nonnull BinaryBuffer buffer) {
+        int hash = 1;
+        for(int i = buffer.startOffset; i < buffer.endOffset; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean contentEquals(@Nonnull byte[] key, @Nonnull BinaryBuffer buffer) {
+        if(key.length != buffer.length) {
+            return false;
+        }
+        int offset = buffer.startOffset;
+        for(int i = 0; i < key.length; i++) {
+            if(key[i] != buffer.get(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return "StringCache{capacity=" + entries.length + ", hits=" + hitCount.get() + ", misses=" + missCount.get() + "}";
+    }
+}
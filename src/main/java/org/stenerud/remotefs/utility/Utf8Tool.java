@@ -13,14 +13,81 @@ public class Utf8Tool {
     private static final byte FOUR_BYTE_MASK = (byte)0xf8;
     private static final byte FOUR_BYTE_MATCH = (byte)0xf0;
 
-    public static int offsetToLastFullUTF8Character(byte[] data, int offset, int minimumOffset) {
+    /**
+     * Calculate the length of a string's UTF-8 encoding without encoding it.
+     * Unpaired surrogates count as one byte, matching the '?' replacement String.getBytes() uses.
+     */
+    public static int getEncodedLength(CharSequence string) {
+        int charCount = string.length();
+        int length = charCount;
+        for(int i = 0; i < charCount; i++) {
+            char ch = string.charAt(i);
+            if(ch < 0x80) {
+                continue;
+            }
+            if(ch < 0x800) {
+                length += 1;
+            } else if(Character.isHighSurrogate(ch) && i + 1 < charCount && Character.isLowSurrogate(string.charAt(i + 1))) {
+                length += 2;
+                i++;
+            } else if(Character.isSurrogate(ch)) {
+                // Encoded as a 1-byte replacement character
+            } else {
+                length += 2;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encode a string as UTF-8 directly into dest, which must have room for getEncodedLength(string) bytes.
+     * Unpaired surrogates are replaced with '?', as String.getBytes() does.
+     * @return The number of bytes written.
+     */
+    public static int encode(CharSequence string, byte[] dest, int offset) {
+        int charCount = string.length();
+        int position = offset;
+        int i = 0;
+        // ASCII fast path
+        for(; i < charCount; i++) {
+            char ch = string.charAt(i);
+            if(ch >= 0x80) {
+                break;
+            }
+            dest[position++] = (byte)ch;
+        }
+        for(; i < charCount; i++) {
+            char ch = string.charAt(i);
+            if(ch < 0x80) {
+                dest[position++] = (byte)ch;
+            } else if(ch < 0x800) {
+                dest[position++] = (byte)(0xc0 | (ch >> 6));
+                dest[position++] = (byte)(0x80 | (ch & 0x3f));
+            } else if(Character.isHighSurrogate(ch) && i + 1 < charCount && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(ch, string.charAt(++i));
+                dest[position++] = (byte)(0xf0 | (codePoint >> 18));
+                dest[position++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+                dest[position++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+                dest[position++] = (byte)(0x80 | (codePoint & 0x3f));
+            } else if(Character.isSurrogate(ch)) {
+                dest[position++] = '?';
+            } else {
+                dest[position++] = (byte)(0xe0 | (ch >> 12));
+                dest[position++] = (byte)(0x80 | ((ch >> 6) & 0x3f));
+                dest[position++] = (byte)(0x80 | (ch & 0x3f));
+            }
+        }
+        return position - offset;
+    }
+
+    public static int offsetToLastFullUTF8Character(BinaryBuffer buffer, int offset) {
         // Regular character
-        if(offset == minimumOffset || (data[offset-1] & MULTIBYTE_MASK) == 0) {
+        if(offset == buffer.startOffset || (buffer.get(offset-1) & MULTIBYTE_MASK) == 0) {
             return offset;
         }
 
         for(int i = -1; i >= -4; i--) {
-            byte currentByte = data[i + offset];
+            byte currentByte = buffer.get(i + offset);
             if((currentByte & MULTIBYTE_INITIATOR_MASK) == MULTIBYTE_INITIATOR_MASK) {
                 int multibyteCount = -i;
                 int expectedMultibyteCount;
@@ -7,6 +7,7 @@ import org.stenerud.remotefs.utility.*;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.util.*;
 
 import static org.junit.Assert.*;
@@ -438,6 +439,857 @@ public class BinaryCodecTest {
         assertDecodeThrowsIllegalState(buffer);
     }
 
+    @Test
+    public void testTokenReaderReadsSelectedField() throws Exception {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        map.put("skipped", Arrays.asList(1, "two", Arrays.asList(3.5, new byte[4])));
+        map.put("also skipped", "value");
+        map.put("wanted", 100000);
+        map.put("last", true);
+        BinaryCodec.TokenReader reader = new BinaryCodec.TokenReader(encode(map));
+        assertEquals(BinaryCodec.TokenReader.Token.MAP, reader.nextToken());
+        reader.enterContainer();
+        Long result = null;
+        while(reader.nextToken() != BinaryCodec.TokenReader.Token.END_CONTAINER) {
+            String key = reader.readString();
+            reader.nextToken();
+            if(key.equals("wanted")) {
+                result = reader.readLong();
+            }
+        }
+        reader.exitContainer();
+        assertEquals(Long.valueOf(100000), result);
+        assertEquals(BinaryCodec.TokenReader.Token.END_OF_DATA, reader.nextToken());
+    }
+
+    @Test
+    public void testTokenReaderScalars() throws Exception {
+        BinaryBuffer buffer = new BinaryBuffer(100);
+        BinaryCodec.Encoder encoder = new BinaryCodec.Encoder(buffer);
+        encoder.writeObject(5);
+        encoder.writeObject(-1000000000000L);
+        encoder.writeObject(1.5);
+        encoder.writeObject(1.1);
+        encoder.writeObject(false);
+        encoder.writeObject(null);
+        encoder.writeObject("test");
+        BinaryCodec.TokenReader reader = new BinaryCodec.TokenReader(encoder.newView());
+        assertEquals(BinaryCodec.TokenReader.Token.INTEGER, reader.nextToken());
+        assertEquals(5, reader.readLong());
+        assertEquals(BinaryCodec.TokenReader.Token.INTEGER, reader.nextToken());
+        assertEquals(-1000000000000L, reader.readLong());
+        assertEquals(BinaryCodec.TokenReader.Token.FLOAT, reader.nextToken());
+        assertEquals(1.5, reader.readDouble(), 0);
+        assertEquals(BinaryCodec.TokenReader.Token.FLOAT, reader.nextToken());
+        assertEquals(1.1, reader.readDouble(), 0);
+        assertEquals(BinaryCodec.TokenReader.Token.BOOLEAN, reader.nextToken());
+        assertFalse(reader.readBoolean());
+        assertEquals(BinaryCodec.TokenReader.Token.EMPTY, reader.nextToken());
+        assertEquals(BinaryCodec.TokenReader.Token.STRING, reader.nextToken());
+        assertEquals("test", reader.readBytes().utf8String());
+        assertEquals(BinaryCodec.TokenReader.Token.END_OF_DATA, reader.nextToken());
+    }
+
+    @Test
+    public void testTokenReaderExitContainerEarly() throws Exception {
+        List<Object> list = Arrays.asList(Arrays.asList(1, 2, Arrays.asList(3, 4)), "after");
+        BinaryCodec.TokenReader reader = new BinaryCodec.TokenReader(encode(list));
+        reader.nextToken();
+        reader.enterContainer();
+        assertEquals(BinaryCodec.TokenReader.Token.LIST, reader.nextToken());
+        reader.enterContainer();
+        reader.nextToken();
+        assertEquals(1, reader.readLong());
+        assertEquals(2, reader.getDepth());
+        reader.exitContainer();
+        assertEquals(1, reader.getDepth());
+        assertEquals(BinaryCodec.TokenReader.Token.STRING, reader.nextToken());
+        assertEquals("after", reader.readString());
+        reader.exitContainer();
+        assertEquals(BinaryCodec.TokenReader.Token.END_OF_DATA, reader.nextToken());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTokenReaderWrongType() throws Exception {
+        BinaryCodec.TokenReader reader = new BinaryCodec.TokenReader(encode("test"));
+        reader.nextToken();
+        reader.readLong();
+    }
+
+    @Test(expected = BinaryCodec.EndOfDataException.class)
+    public void testTokenReaderTruncatedContainer() throws Exception {
+        BinaryCodec.TokenReader reader = new BinaryCodec.TokenReader(truncate(encode(Arrays.asList(1, 2, 3))));
+        reader.nextToken();
+        reader.skipValue();
+    }
+
+    @Test
+    public void testIncrementalDecoder() throws Exception {
+        Map<Object, Object> map = new HashMap<>();
+        map.put("path", "/some/where/over/the/rainbow");
+        map.put("sizes", Arrays.asList(1, 1000, 100000, 10000000000L));
+        map.put("nested", Collections.singletonMap("x", Arrays.asList(1.5, 1.1)));
+        List<Object> expected = Arrays.asList(1, "two", map, null, new BinaryBuffer(300), Arrays.asList(), true);
+
+        BinaryBuffer buffer = new BinaryBuffer(10000);
+        BinaryCodec.Encoder encoder = new BinaryCodec.Encoder(buffer);
+        for(Object o: expected) {
+            encoder.writeObject(o);
+        }
+        BinaryBuffer encoded = encoder.newView();
+
+        for(int chunkSize: new int[] {1, 2, 3, 7, 100, encoded.length}) {
+            List<Object> actual = new LinkedList<>();
+            BinaryCodec.IncrementalDecoder decoder = new BinaryCodec.IncrementalDecoder(actual::add);
+            for(int offset = encoded.startOffset; offset < encoded.endOffset; offset += chunkSize) {
+                decoder.feed(encoded.newView(offset, Math.min(offset + chunkSize, encoded.endOffset)));
+            }
+            decoder.verifyCompleteness();
+            DeepEquality.assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testIncrementalDecoderEmitsCompletedValues() throws Exception {
+        BinaryBuffer first = encode("first");
+        BinaryBuffer second = encode("second value");
+        List<Object> actual = new LinkedList<>();
+        BinaryCodec.IncrementalDecoder decoder = new BinaryCodec.IncrementalDecoder(actual::add);
+        decoder.feed(first);
+        decoder.feed(second.newView(second.startOffset, second.startOffset + 4));
+        assertEquals(Collections.singletonList("first"), actual);
+        assertTrue(decoder.hasPartialValue());
+        decoder.feed(second.newView(second.startOffset + 4));
+        assertEquals(Arrays.asList("first", "second value"), actual);
+        assertFalse(decoder.hasPartialValue());
+    }
+
+    @Test
+    public void testIncrementalDecoderCopiesBytes() throws Exception {
+        byte[] first = new byte[20];
+        byte[] second = new byte[20];
+        for(int i = 0; i < first.length; i++) {
+            first[i] = (byte)(i + 1);
+            second[i] = (byte)(100 + i);
+        }
+        char[] filler = new char[38];
+        Arrays.fill(filler, 'z');
+        List<Object> expected = Arrays.asList(first, new String(filler), second);
+        BinaryBuffer encoded = encode(expected);
+
+        for(int chunkSize: new int[] {1, 5, 13, encoded.length}) {
+            List<Object> actual = new LinkedList<>();
+            BinaryCodec.IncrementalDecoder decoder = new BinaryCodec.IncrementalDecoder(actual::add);
+            // Reuse one chunk buffer, the way a socket reader would.
+            BinaryBuffer chunk = new BinaryBuffer(chunkSize);
+            for(int offset = encoded.startOffset; offset < encoded.endOffset; offset += chunkSize) {
+                int length = Math.min(chunkSize, encoded.endOffset - offset);
+                encoded.copyTo(chunk.data, 0, offset, length);
+                decoder.feed(chunk.newView(0, length));
+            }
+            Arrays.fill(chunk.data, (byte)0);
+            decoder.verifyCompleteness();
+            List<?> list = (List<?>)actual.get(0);
+            assertArrayEquals(first, ((BinaryBuffer)list.get(0)).newCopy().data);
+            assertEquals(expected.get(1), list.get(1));
+            assertArrayEquals(second, ((BinaryBuffer)list.get(2)).newCopy().data);
+        }
+    }
+
+    @Test(expected = BinaryCodec.EndOfDataException.class)
+    public void testIncrementalDecoderIncomplete() throws Exception {
+        BinaryCodec.IncrementalDecoder decoder = new BinaryCodec.IncrementalDecoder(value -> {});
+        decoder.feed(truncate(encode(Arrays.asList(1, 2, 3))));
+        decoder.verifyCompleteness();
+    }
+
+    @Test
+    public void testPrimitiveWritesMatchObjectWrites() throws Exception {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        map.put("id", 100000L);
+        map.put("ratio", 0.1);
+        map.put("flags", Arrays.asList(true, false, null));
+        map.put("data", new byte[] {1, 2, 3});
+        BinaryBuffer expected = encode(map);
+
+        BinaryBuffer buffer = new BinaryBuffer(1000);
+        BinaryCodec.Encoder encoder = new BinaryCodec.Encoder(buffer);
+        encoder.beginMap();
+        encoder.writeString("id");
+        encoder.writeLong(100000L);
+        encoder.writeString(new StringBuilder("ratio"));
+        encoder.writeDouble(0.1);
+        encoder.writeString("flags");
+        encoder.beginList();
+        encoder.writeBoolean(true);
+        encoder.writeBoolean(false);
+        encoder.writeEmpty();
+        encoder.endContainer();
+        encoder.writeString("data");
+        encoder.writeBytes(new byte[] {0, 1, 2, 3, 4}, 1, 4);
+        assertEquals(1, encoder.getContainerDepth());
+        encoder.endContainer();
+        assertEquals(0, encoder.getContainerDepth());
+        assertEquals(expected, encoder.newView());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnbalancedEndContainer() throws Exception {
+        BinaryCodec.Encoder encoder = new BinaryCodec.Encoder(new BinaryBuffer(10));
+        encoder.beginList();
+        encoder.endContainer();
+        encoder.endContainer();
+    }
+
+    @Test
+    public void testSizeOf() throws Exception {
+        long value = 0x23;
+        for(int i = 0; i < 16; i++) {
+            assertSizeOf(value);
+            assertSizeOf(-value);
+            value |= value << 8;
+        }
+        assertSizeOf((byte)1);
+        assertSizeOf((short)10000);
+        assertSizeOf(100000000);
+        assertSizeOf(1.5);
+        assertSizeOf(1.1);
+        assertSizeOf(1.1f);
+        assertSizeOf(Double.NaN);
+        assertSizeOf(true);
+        assertSizeOf(null);
+        assertSizeOf("");
+        assertSizeOf("test");
+        assertSizeOf("straße これは 𩶘");
+        assertSizeOf(new String(new char[1000]));
+        assertSizeOf(new byte[200]);
+        assertSizeOf(new BinaryBuffer(100000));
+        assertSizeOf(new Int128Holder(100, 10000000000000L));
+        assertSizeOf(Instant.parse("2017-12-03T10:15:30.01Z"));
+        assertSizeOf(Instant.parse("2017-12-03T10:15:30.00Z"));
+        assertSizeOf(Instant.parse("2017-12-03T00:00:00.00Z"));
+        assertSizeOf(Instant.parse("2017-12-03T10:15:30.000001Z"));
+        assertSizeOf(parseDate("2017-12-03T10:15:30.001-0000"));
+        assertSizeOf(parseDate("2017-12-03T10:15:30.000-0000"));
+        assertSizeOf(parseDate("2017-12-03T00:00:00.000-0000"));
+        Map<Object, Object> map = new HashMap<>();
+        map.put("one", Arrays.asList(1, 1000, "x", Collections.emptyMap()));
+        map.put(2, new byte[10]);
+        assertSizeOf(map);
+        assertSizeOf(Arrays.asList(map, map, null));
+    }
+
+    private void assertSizeOf(Object value) throws Exception {
+        assertEquals("Size of " + value, encode(value).length, BinaryCodec.sizeOf(value));
+    }
+
+    @Test
+    public void testDateAtNoon() throws Exception {
+        assertEncodeDecode(parseDate("2017-12-03T12:00:00.000-0000"));
+        assertEncodeDecode(Instant.parse("2017-12-03T00:00:00.50Z"));
+    }
+
+    private List<Object> newLargeList() {
+        List<Object> list = new ArrayList<>();
+        for(int i = 0; i < 1000; i++) {
+            list.add(i * 1000);
+            list.add("entry " + i);
+            list.add(new byte[i % 50]);
+        }
+        list.add(new byte[5000]);
+        return list;
+    }
+
+    @Test
+    public void testGrowingEncoder() throws Exception {
+        List<Object> list = newLargeList();
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(16);
+        encoder.writeObject(list);
+        encoder.writeObject("after");
+        BinaryBuffer expected = new BinaryBuffer(100000);
+        BinaryCodec.Encoder fixedEncoder = new BinaryCodec.Encoder(expected);
+        fixedEncoder.writeObject(list);
+        fixedEncoder.writeObject("after");
+        assertEquals(fixedEncoder.newView(), encoder.newView());
+    }
+
+    @Test
+    public void testChainedEncoder() throws Exception {
+        List<Object> list = newLargeList();
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newChained(256);
+        encoder.writeObject(list);
+        CompositeBuffer result = encoder.newCompositeView();
+        assertTrue(result.segments.size() > 1);
+        assertEquals(encode(list), result.newCopy());
+        DeepEquality.assertEquals(list.subList(0, 2), decodeSingleObject(result.newCopy(), List.class).subList(0, 2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testChainedEncoderViewSpansSegments() throws Exception {
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newChained(16);
+        encoder.writeObject(newLargeList());
+        encoder.newView();
+    }
+
+    @Test
+    public void testChainedListStream() throws Exception {
+        List<Object> expected = newLargeList();
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newChained(100);
+        BinaryCodec.Encoder.Stream<Object> stream = encoder.newListStream();
+        for(Object o: expected) {
+            stream.write(o);
+        }
+        stream.close();
+        assertEquals(encode(expected), encoder.newCompositeView().newCopy());
+    }
+
+    private static class RecordingVisitor implements BinaryCodec.Decoder.TypedVisitor {
+        final List<String> events = new LinkedList<>();
+
+        public void onLong(long value) { events.add("long " + value); }
+        public void onDouble(double value) { events.add("double " + value); }
+        public void onFloat(float value) { events.add("float " + value); }
+        public void onBoolean(boolean value) { events.add("boolean " + value); }
+        public void onNull() { events.add("null"); }
+        public void onString(BinaryBuffer utf8) { events.add("string " + utf8.utf8String()); }
+        public void onBytes(BinaryBuffer value) { events.add("bytes " + value.length); }
+        public void onDecimal128(long highWord, long lowWord) { events.add("decimal " + highWord + " " + lowWord); }
+        public void onDateDays(int year, int month, int day) { events.add("days " + year + "-" + month + "-" + day); }
+        public void onDateSeconds(long seconds) { events.add("seconds " + seconds); }
+        public void onDateMilliseconds(long milliseconds) { events.add("milliseconds " + milliseconds); }
+        public void onDateMicroseconds(long microseconds) { events.add("microseconds " + microseconds); }
+        public void onLongArray(long[] values) { events.add("longs " + Arrays.toString(values)); }
+        public void onDoubleArray(double[] values) { events.add("doubles " + Arrays.toString(values)); }
+        public void onBooleanArray(boolean[] values) { events.add("booleans " + Arrays.toString(values)); }
+        public void onListStart() { events.add("list"); }
+        public void onMapStart() { events.add("map"); }
+        public void onContainerEnd() { events.add("end"); }
+    }
+
+    @Test
+    public void testTypedVisitor() throws Exception {
+        BinaryBuffer buffer = new BinaryBuffer(1000);
+        BinaryCodec.Encoder encoder = new BinaryCodec.Encoder(buffer);
+        encoder.writeObject(Arrays.asList(1, -100000, 10000000000L, 1.5, 1.1, 2.5f));
+        encoder.writeObject(Collections.singletonMap("key", true));
+        encoder.writeObject(null);
+        encoder.writeObject(new byte[3]);
+        encoder.writeObject(new Int128Holder(1, 2));
+        encoder.writeObject(Instant.parse("2017-12-03T00:00:00Z"));
+        encoder.writeObject(Instant.parse("2017-12-03T10:15:30Z"));
+        encoder.writeObject(Instant.parse("2017-12-03T10:15:30.001Z"));
+        encoder.writeObject(Instant.parse("2017-12-03T10:15:30.000001Z"));
+        RecordingVisitor visitor = new RecordingVisitor();
+        new BinaryCodec.Decoder(visitor).feed(encoder.newView());
+        List<String> expected = Arrays.asList(
+                "list", "long 1", "long -100000", "long 10000000000", "float 1.5", "double 1.1", "float 2.5", "end",
+                "map", "string key", "boolean true", "end",
+                "null",
+                "bytes 3",
+                "decimal 1 2",
+                "days 2017-12-3",
+                "seconds 1512296130",
+                "milliseconds 1512296130001",
+                "microseconds 1512296130000001");
+        assertEquals(expected, visitor.events);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTypedVisitorTruncatedContainer() throws Exception {
+        new BinaryCodec.Decoder(new RecordingVisitor()).feed(truncate(encode(Arrays.asList(1, 2))));
+    }
+
+    private static class Point {
+        final int x;
+        final int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    @Test
+    public void testCustomTypeCodec() throws Exception {
+        BinaryCodec.registerTypeCodec(Point.class, (encoder, point) -> {
+            int length = encoder.beginList();
+            length += encoder.writeLong(point.x);
+            length += encoder.writeLong(point.y);
+            return length + encoder.endContainer();
+        });
+        Point point = new Point(1, 100000);
+        Object expected = Arrays.asList(1L, 100000L);
+        assertEquals(expected, decodeSingleObject(encode(point), Object.class));
+        assertEquals(expected, decodeSingleObject(encode(Collections.singletonMap("p", point)), Map.class).get("p"));
+        assertEquals(encode(point).length, BinaryCodec.sizeOf(point));
+        assertEquals(encode(expected).length, BinaryCodec.sizeOf(point));
+    }
+
+    @Test
+    public void testSubclassDispatch() throws Exception {
+        assertEncodeDecode(new ArrayList<>(Arrays.asList(1L, 2L)));
+        assertEncodeDecode(new TreeMap<>(Collections.singletonMap("a", 1L)));
+        java.sql.Timestamp timestamp = new java.sql.Timestamp(1512296130001L);
+        assertEquals(new Date(timestamp.getTime()), decodeSingleObject(encode(timestamp), Object.class));
+        assertEquals(encode(timestamp).length, BinaryCodec.sizeOf(timestamp));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownType() throws Exception {
+        encode(new Object());
+    }
+
+    @Test
+    public void testStringLengthFieldWidths() throws Exception {
+        for(int length: new int[] {0, 1, 38, 39, 40, 116, 117, 4096, 4097, 30000}) {
+            char[] ascii = new char[length];
+            Arrays.fill(ascii, 'a');
+            assertStringEncoding(new String(ascii));
+            char[] wide = new char[length];
+            Arrays.fill(wide, 'ß');
+            assertStringEncoding(new String(wide));
+        }
+    }
+
+    @Test
+    public void testStringInNearlyFullBuffer() throws Exception {
+        String value = "exactly fits";
+        int size = BinaryCodec.sizeOf(value);
+        BinaryCodec.Encoder encoder = new BinaryCodec.Encoder(new BinaryBuffer(size));
+        assertEquals(size, encoder.writeString(value));
+        assertEquals(value, decodeSingleObject(encoder.newView(), String.class));
+
+        encoder = new BinaryCodec.Encoder(new BinaryBuffer(size - 1));
+        try {
+            encoder.writeString(value);
+            fail("Expected NoRoomException");
+        } catch(BinaryCodec.NoRoomException e) {
+            assertEquals(0, encoder.newView().length);
+        }
+    }
+
+    private void assertStringEncoding(String value) throws Exception {
+        BinaryBuffer encoded = encode(value);
+        assertEquals(BinaryCodec.sizeOf(value), encoded.length);
+        assertEquals(value, decodeSingleObject(encoded, String.class));
+    }
+
+    @Test
+    public void testDecodeWithStringCache() throws Exception {
+        StringCache cache = new StringCache(64);
+        BinaryBuffer encoded = encode(Arrays.asList(Collections.singletonMap("name", "a"), Collections.singletonMap("name", "b")));
+        List<Object> results = new ArrayList<>();
+        BinaryCodec.Decoder decoder = new BinaryCodec.Decoder(results::add, cache);
+        decoder.feed(encoded);
+        decoder.feed(encoded);
+        assertEquals(2, results.size());
+        assertEquals(results.get(0), results.get(1));
+        String firstKey = (String)((Map)((List)results.get(0)).get(0)).keySet().iterator().next();
+        String secondKey = (String)((Map)((List)results.get(1)).get(1)).keySet().iterator().next();
+        assertSame(firstKey, secondKey);
+        assertEquals(3, cache.getMissCount());
+        assertEquals(5, cache.getHitCount());
+    }
+
+    @Test
+    public void testLazyContainers() throws Exception {
+        Map<Object, Object> map = new HashMap<>();
+        map.put("list", Arrays.asList(1L, "two", Collections.singletonMap("three", 3L), Arrays.asList(4L, 5L)));
+        map.put(10L, new BinaryBuffer(new byte[] {1, 2, 3}));
+        map.put("empty", Collections.emptyMap());
+        BinaryBuffer encoded = encode(Arrays.asList(map, Collections.emptyList(), 1.5));
+        Object expected = decodeSingleObject(encoded, Object.class);
+        Object actual = decodeSingleObjectLazily(encoded);
+        DeepEquality.assertEquals(expected, actual);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testLazyContainerPartialAccess() throws Exception {
+        List<Object> entries = new ArrayList<>();
+        for(int i = 0; i < 1000; i++) {
+            entries.add(Collections.singletonMap("name", "file" + i));
+        }
+        List<?> list = (List<?>)decodeSingleObjectLazily(encode(entries));
+        assertEquals("file5", ((Map<?, ?>)list.get(5)).get("name"));
+        assertSame(list.get(5), list.get(5));
+        assertEquals(1000, list.size());
+        assertEquals("file999", ((Map<?, ?>)list.get(999)).get("name"));
+        try {
+            list.get(1000);
+            fail("Expected IndexOutOfBoundsException");
+        } catch(IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testLazyContainersSkipNulls() throws Exception {
+        Map<Object, Object> map = new HashMap<>();
+        map.put("a", null);
+        map.put("b", 1L);
+        List<?> list = (List<?>)decodeSingleObjectLazily(encode(Arrays.asList(null, map, null)));
+        assertEquals(1, list.size());
+        Map<?, ?> decodedMap = (Map<?, ?>)list.get(0);
+        assertEquals(Collections.singletonMap("b", 1L), decodedMap);
+        assertFalse(decodedMap.containsKey("a"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testLazyContainersAreReadOnly() throws Exception {
+        ((List<Object>)decodeSingleObjectLazily(encode(Arrays.asList(1L)))).add(2L);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLazyContainerTruncated() throws Exception {
+        decodeSingleObjectLazily(truncate(encode(Arrays.asList(1L, Arrays.asList(2L)))));
+    }
+
+    private Object decodeSingleObjectLazily(BinaryBuffer buffer) throws Exception {
+        List<Object> results = new ArrayList<>();
+        new BinaryCodec.Decoder(results::add, null, true).feed(buffer);
+        assertEquals(1, results.size());
+        return results.get(0);
+    }
+
+    @Test
+    public void testStructuralScan() throws Exception {
+        List<Object> values = Arrays.asList(1L, 1000000L, "a string", new BinaryBuffer(new byte[300]),
+                Arrays.asList(1L, Arrays.asList("nested", Collections.singletonMap("k", 2.5)), Collections.emptyList()),
+                Collections.singletonMap("key", new BinaryBuffer(new byte[70000])), null, true, 1.1,
+                new Int128Holder(1, 2), Instant.parse("2017-12-03T10:15:30.01Z"));
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(100);
+        List<Integer> expectedEnds = new ArrayList<>();
+        for(Object value: values) {
+            encoder.writeObject(value);
+            expectedEnds.add(encoder.newView().endOffset);
+        }
+        BinaryBuffer encoded = encoder.newView();
+
+        List<Integer> ends = new ArrayList<>();
+        int count = BinaryCodec.StructuralScanner.scan(encoded, (type, startOffset, endOffset) -> {
+            assertEquals(encoded.data[startOffset], type);
+            if(!ends.isEmpty()) {
+                assertEquals((int)ends.get(ends.size() - 1), startOffset);
+            }
+            ends.add(endOffset);
+        });
+        assertEquals(values.size(), count);
+        assertEquals(expectedEnds, ends);
+
+        BinaryCodec.StructuralScanner scanner = new BinaryCodec.StructuralScanner(encoded);
+        for(Object value: values) {
+            assertTrue(scanner.hasNext());
+            BinaryBuffer view = scanner.nextValue();
+            if(value != null) {
+                DeepEquality.assertEquals(decodeSingleObject(encode(value), Object.class), decodeSingleObject(view, Object.class));
+            }
+        }
+        assertFalse(scanner.hasNext());
+    }
+
+    @Test
+    public void testStructuralScanTruncated() throws Exception {
+        BinaryBuffer encoded = encode(Arrays.asList("abc", Arrays.asList(1L, new byte[200])));
+        for(int length = 0; length < encoded.length; length++) {
+            BinaryCodec.StructuralScanner scanner = new BinaryCodec.StructuralScanner(encoded.newView(encoded.startOffset, encoded.startOffset + length));
+            try {
+                scanner.skipValue();
+                fail("Expected EndOfDataException at length " + length);
+            } catch(BinaryCodec.EndOfDataException e) {
+                assertEquals(encoded.startOffset, scanner.getCurrentOffset());
+            }
+        }
+    }
+
+    @Test
+    public void testStructuralScanHugeLength() throws Exception {
+        // A bytes value claiming Integer.MAX_VALUE - 1 bytes, followed by only 2 of them.
+        byte[] data = {BinaryCodec.EncodedType.BYTES, BinaryCodec.EncodedType.INT32, (byte)0xfe, (byte)0xff, (byte)0xff, 0x7f, 1, 2};
+        BinaryCodec.StructuralScanner scanner = new BinaryCodec.StructuralScanner(new BinaryBuffer(data));
+        try {
+            scanner.skipValue();
+            fail("Expected EndOfDataException");
+        } catch(BinaryCodec.EndOfDataException e) {
+            assertEquals(0, scanner.getCurrentOffset());
+        }
+        try {
+            BinaryCodec.StructuralScanner.scan(new BinaryBuffer(data), (type, startOffset, endOffset) -> fail("Reported a value"));
+            fail("Expected EndOfDataException");
+        } catch(BinaryCodec.EndOfDataException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testStructuralScanUnexpectedEndOfContainer() throws Exception {
+        new BinaryCodec.StructuralScanner(new BinaryBuffer(new byte[] {BinaryCodec.EncodedType.END_CONTAINER})).skipValue();
+    }
+
+    @Test
+    public void testExtract() throws Exception {
+        Map<Object, Object> inner = new HashMap<>();
+        inner.put("path", Arrays.asList("a", null, "b", "c", Arrays.asList(1L, 2L)));
+        inner.put(42L, "forty-two");
+        inner.put("nothing", null);
+        Map<Object, Object> outer = new HashMap<>();
+        outer.put("padding", new BinaryBuffer(new byte[1000]));
+        outer.put("context_info", inner);
+        BinaryBuffer encoded = encode(outer);
+
+        assertEquals("c", BinaryCodec.extract(encoded, "context_info", "path", 2));
+        assertEquals(2L, BinaryCodec.extract(encoded, "context_info", "path", 3, 1));
+        assertEquals("forty-two", BinaryCodec.extract(encoded, "context_info", 42));
+        assertEquals(decodeSingleObject(encoded, Object.class), BinaryCodec.extract(encoded));
+        assertNull(BinaryCodec.extract(encoded, "context_info", "path", 5));
+        assertNull(BinaryCodec.extract(encoded, "context_info", "nothing"));
+        assertNull(BinaryCodec.extract(encoded, "context_info", "missing"));
+        assertNull(BinaryCodec.extract(encoded, "context_info", "path", "not an index"));
+        assertNull(BinaryCodec.extract(encoded, "padding", 0));
+    }
+
+    @Test
+    public void testValuePathReuse() throws Exception {
+        BinaryCodec.ValuePath path = new BinaryCodec.ValuePath("name");
+        for(int i = 0; i < 3; i++) {
+            BinaryBuffer encoded = encode(Collections.singletonMap("name", "file" + i));
+            assertEquals("file" + i, path.extract(encoded));
+            assertEquals(encode("file" + i), path.find(encoded));
+        }
+    }
+
+    @Test(expected = BinaryCodec.EndOfDataException.class)
+    public void testExtractTruncated() throws Exception {
+        BinaryCodec.extract(truncate(encode(Collections.singletonMap("a", 1L))), "b");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadPathElement() throws Exception {
+        new BinaryCodec.ValuePath("a", 1.5);
+    }
+
+    @Test
+    public void testDirectBufferScanAndExtract() throws Exception {
+        Map<Object, Object> map = new HashMap<>();
+        map.put("path", Arrays.asList("a", "b", "c"));
+        map.put("data", new BinaryBuffer(new byte[500]));
+        BinaryBuffer heap = encode(map);
+        BinaryBuffer direct = BinaryBuffer.newDirect(heap.length + 10).newView(5, heap.length + 5);
+        direct.copyFrom(heap, heap.startOffset, direct.startOffset, heap.length);
+
+        assertEquals("c", BinaryCodec.extract(direct, "path", 2));
+        BinaryCodec.StructuralScanner scanner = new BinaryCodec.StructuralScanner(direct);
+        assertEquals(direct, scanner.nextValue());
+        assertFalse(scanner.hasNext());
+        List<?> lazyPath = (List<?>)((Map<?, ?>)decodeSingleObjectLazily(direct)).get("path");
+        assertEquals("b", lazyPath.get(1));
+    }
+
+    @Test
+    public void testDecodedContainerTypes() throws Exception {
+        Map<Object, Object> smallMap = new HashMap<>();
+        Map<Object, Object> largeMap = new HashMap<>();
+        for(long i = 0; i < 100; i++) {
+            if(i < 8) {
+                smallMap.put(i, "value" + i);
+            }
+            largeMap.put(i, i % 3 == 0 ? null : "value" + i);
+        }
+        List<Object> list = Arrays.asList(smallMap, largeMap, Arrays.asList(1L, null, 3L), Collections.emptyMap());
+        BinaryBuffer encoded = encode(list);
+        for(BinaryCodec.Decoder.Options options: Arrays.asList(BinaryCodec.Decoder.Options.DEFAULT,
+                BinaryCodec.Decoder.Options.DEFAULT.withPresizedContainers(true))) {
+            List<Object> results = new ArrayList<>();
+            new BinaryCodec.Decoder(results::add, options).feed(encoded);
+            List<?> decoded = (List<?>)results.get(0);
+            assertTrue(decoded instanceof ArrayList);
+            assertTrue(decoded.get(0) instanceof ArrayMap);
+            assertTrue(decoded.get(1) instanceof HashMap);
+            assertEquals(decodeSingleObject(encoded, Object.class), decoded);
+            assertEquals(smallMap, decoded.get(0));
+            assertEquals(66, ((Map<?, ?>)decoded.get(1)).size());
+            assertEquals(Arrays.asList(1L, 3L), decoded.get(2));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPresizedContainerTruncated() throws Exception {
+        new BinaryCodec.Decoder(value -> {}, BinaryCodec.Decoder.Options.DEFAULT.withPresizedContainers(true))
+                .feed(truncate(encode(Arrays.asList(1L, 2L))));
+    }
+
+    @Test
+    public void testSmallIntegerBoundaries() throws Exception {
+        for(long value = -130; value <= 130; value++) {
+            assertEncodeDecode(value);
+            assertSizeOf(value);
+        }
+    }
+
+    @Test
+    public void testFastProfile() throws Exception {
+        assertFastEncoding(1L, BinaryCodec.EncodedType.INT32, 5);
+        assertFastEncoding(-100000, BinaryCodec.EncodedType.INT32, 5);
+        assertFastEncoding(1L << 40, BinaryCodec.EncodedType.INT64, 9);
+        assertFastEncoding(Long.MIN_VALUE, BinaryCodec.EncodedType.INT64, 9);
+        assertFastEncoding(1.5, BinaryCodec.EncodedType.FLOAT64, 9);
+        // Lengths stay compact.
+        assertFastEncoding("abc", BinaryCodec.EncodedType.STRING, 5);
+
+        List<Object> values = Arrays.asList(0L, 127L, -128L, 1L << 31, 2.5, 1.1, "text", Arrays.asList(1L, 2L));
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(10);
+        assertEquals(BinaryCodec.Encoder.Profile.COMPACT, encoder.getProfile());
+        encoder.setProfile(BinaryCodec.Encoder.Profile.FAST);
+        encoder.writeObject(values);
+        DeepEquality.assertEquals(values, decodeSingleObject(encoder.newView(), Object.class));
+    }
+
+    private void assertFastEncoding(Object value, int expectedType, int expectedLength) throws Exception {
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(10);
+        encoder.setProfile(BinaryCodec.Encoder.Profile.FAST);
+        assertEquals(expectedLength, encoder.writeObject(value));
+        BinaryBuffer encoded = encoder.newView();
+        assertEquals(expectedLength, encoded.length);
+        assertEquals((byte)expectedType, encoded.get(encoded.startOffset));
+        Object expected = value instanceof Integer ? (Object)((Integer)value).longValue() : value;
+        assertEquals(expected, decodeSingleObject(encoded, Object.class));
+    }
+
+    @Test
+    public void testPackedArrays() throws Exception {
+        assertPackedArray(new long[] {1, -2, 127, -128}, BinaryCodec.PackedElementType.INT8, 1);
+        assertPackedArray(new long[] {1, 128, -32768}, BinaryCodec.PackedElementType.INT16, 2);
+        assertPackedArray(new long[] {1, 100000, Integer.MIN_VALUE}, BinaryCodec.PackedElementType.INT32, 4);
+        assertPackedArray(new long[] {1, Long.MAX_VALUE, Long.MIN_VALUE}, BinaryCodec.PackedElementType.INT64, 8);
+        assertPackedArray(new long[0], BinaryCodec.PackedElementType.INT8, 1);
+
+        BinaryBuffer encoded = encode(new int[] {1, 1000, 100000});
+        assertEquals(BinaryCodec.PackedElementType.INT32, encoded.get(encoded.startOffset + 1));
+        assertArrayEquals(new long[] {1, 1000, 100000}, decodeSingleObject(encoded, long[].class));
+        assertSizeOf(new int[] {1, 1000, 100000});
+
+        assertPackedArray(new double[] {1.5, -0.25, Double.POSITIVE_INFINITY}, BinaryCodec.PackedElementType.FLOAT32, 4);
+        assertPackedArray(new double[] {1.5, 1.1, Double.MIN_VALUE}, BinaryCodec.PackedElementType.FLOAT64, 8);
+        assertArrayEquals(new double[] {1.5, 2.5}, decodeSingleObject(encode(new float[] {1.5f, 2.5f}), double[].class), 0);
+        assertSizeOf(new float[] {1.5f, 2.5f});
+
+        boolean[] booleans = new boolean[19];
+        BitSet bits = new BitSet();
+        for(int i = 0; i < booleans.length; i += 3) {
+            booleans[i] = true;
+            bits.set(i);
+        }
+        assertEncodeDecode(booleans);
+        assertEquals(2 + 1 + 3, encode(booleans).length);
+        assertSizeOf(booleans);
+        assertEquals(encode(booleans), encode(bits));
+        assertSizeOf(bits);
+        assertEncodeDecode(new boolean[0]);
+    }
+
+    private void assertPackedArray(Object array, int elementType, int elementSize) throws Exception {
+        BinaryBuffer encoded = encode(array);
+        int count = java.lang.reflect.Array.getLength(array);
+        assertEquals(BinaryCodec.EncodedType.PACKED_ARRAY, encoded.get(encoded.startOffset));
+        assertEquals(elementType, encoded.get(encoded.startOffset + 1));
+        assertEquals(2 + BinaryCodec.getIntegerEncodedLength(count) + count * elementSize, encoded.length);
+        assertSizeOf(array);
+        assertEncodeDecode(array);
+    }
+
+    @Test
+    public void testPackedArrayInContainers() throws Exception {
+        long[] values = new long[10000];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = i * 3;
+        }
+        Map<Object, Object> map = new HashMap<>();
+        map.put("values", values);
+        map.put("after", "x");
+        List<Object> expected = Arrays.asList(new double[] {1.1}, map, new boolean[] {true, false}, 5L);
+        assertEncodeDecode(expected);
+        BinaryBuffer encoded = encode(expected);
+
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(100);
+        encoder.writePackedArray(values);
+        encoder.writeString("x");
+        assertEquals(2, BinaryCodec.StructuralScanner.scan(encoder.newView(), (type, start, end) -> {}));
+        assertEquals("x", BinaryCodec.extract(encoded, 1, "after"));
+        assertEquals(5L, BinaryCodec.extract(encoded, 3));
+        assertArrayEquals(values, (long[])BinaryCodec.extract(encoded, 1, "values"));
+        DeepEquality.assertEquals(expected, decodeSingleObjectLazily(encoded));
+
+        for(int chunkSize: new int[] {1, 7, 1000}) {
+            List<Object> actual = new LinkedList<>();
+            BinaryCodec.IncrementalDecoder decoder = new BinaryCodec.IncrementalDecoder(actual::add);
+            for(int offset = encoded.startOffset; offset < encoded.endOffset; offset += chunkSize) {
+                decoder.feed(encoded.newView(offset, Math.min(offset + chunkSize, encoded.endOffset)));
+            }
+            decoder.verifyCompleteness();
+            DeepEquality.assertEquals(Collections.singletonList(expected), actual);
+        }
+
+        BinaryCodec.TokenReader reader = new BinaryCodec.TokenReader(encoded);
+        assertEquals(BinaryCodec.TokenReader.Token.LIST, reader.nextToken());
+        reader.enterContainer();
+        assertEquals(BinaryCodec.TokenReader.Token.PACKED_ARRAY, reader.nextToken());
+        assertArrayEquals(new double[] {1.1}, (double[])reader.readPackedArray(), 0);
+        assertEquals(BinaryCodec.TokenReader.Token.MAP, reader.nextToken());
+        assertEquals(BinaryCodec.TokenReader.Token.PACKED_ARRAY, reader.nextToken());
+        assertEquals(BinaryCodec.TokenReader.Token.INTEGER, reader.nextToken());
+        assertEquals(5L, reader.readLong());
+
+        RecordingVisitor visitor = new RecordingVisitor();
+        new BinaryCodec.Decoder(visitor).feed(encode(Arrays.asList(new int[] {1, 2}, new double[] {0.5}, new boolean[] {true})));
+        assertEquals(Arrays.asList("list", "longs [1, 2]", "doubles [0.5]", "booleans [true]", "end"), visitor.events);
+    }
+
+    @Test(expected = BinaryCodec.EndOfDataException.class)
+    public void testPackedArrayTruncated() throws Exception {
+        decodeSingleObject(truncate(encode(new long[] {1, 2, 3})), Object.class);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPackedArrayUnknownElementType() throws Exception {
+        BinaryBuffer encoded = encode(new long[] {1, 2, 3});
+        encoded.put(encoded.startOffset + 1, (byte)0x7f);
+        BinaryCodec.StructuralScanner.scan(encoded, (type, start, end) -> {});
+    }
+
+    @Test
+    public void testDateDaysArithmetic() throws Exception {
+        for(long epochDay = -1000000; epochDay <= 1000000; epochDay += 13) {
+            assertDateDaysArithmetic(epochDay);
+        }
+        for(long epochDay: new long[] {0, -1, 59, 60, -719468, LocalDate.of(2000, 2, 29).toEpochDay(), LocalDate.of(1900, 3, 1).toEpochDay()}) {
+            assertDateDaysArithmetic(epochDay);
+        }
+    }
+
+    private void assertDateDaysArithmetic(long epochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        int field = BinaryCodec.getDateDaysField(epochDay);
+        assertEquals(date.toString(), date.getYear(), field >> 9);
+        assertEquals(date.toString(), date.getMonthValue(), (field >> 5) & 0x0f);
+        assertEquals(date.toString(), date.getDayOfMonth(), field & 0x1f);
+        assertEquals(epochDay, BinaryCodec.getEpochDay(field));
+    }
+
+    @Test
+    public void testJavaTimeDates() throws Exception {
+        assertSizeOf(LocalDate.of(2017, 12, 3));
+        assertEquals(encode(Instant.parse("1969-07-20T00:00:00Z")), encode(LocalDate.of(1969, 7, 20)));
+        assertEquals(parseDate("1969-07-20T00:00:00.000-0000"), decodeSingleObject(encode(LocalDate.of(1969, 7, 20)), Date.class));
+        assertEncodeDecode(Instant.parse("1969-07-20T20:17:40.123456Z"));
+        assertEncodeDecode(Instant.parse("0800-01-01T00:00:00.000001Z"));
+
+        List<Object> dates = Arrays.asList(LocalDate.of(1500, 3, 1), Instant.parse("2017-12-03T10:15:30Z"),
+                Instant.parse("1917-12-03T10:15:30.001Z"), Instant.parse("2017-12-03T10:15:30.000001Z"));
+        List<Object> results = new ArrayList<>();
+        new BinaryCodec.Decoder(results::add, BinaryCodec.Decoder.Options.DEFAULT.withJavaTimeDates(true)).feed(encode(dates));
+        assertEquals(dates, results.get(0));
+    }
+
     private BinaryBuffer encode(Object o) throws BinaryCodec.NoRoomException {
         BinaryBuffer buffer = new BinaryBuffer(1000000);
         BinaryCodec.Encoder encoder = new BinaryCodec.Encoder(buffer);
@@ -465,5 +1317,12 @@ public class BinaryCodecTest {
             expected = new BinaryBuffer((byte[])expected);
         }
         DeepEquality.assertEquals(expected, actual);
+
+        BinaryCodec.Encoder directEncoder = new BinaryCodec.Encoder(BinaryBuffer.newDirect(encodedBuffer.length));
+        directEncoder.writeObject(expected);
+        BinaryBuffer directBuffer = directEncoder.newView();
+        assertTrue(directBuffer.isDirect());
+        assertEquals(encodedBuffer, directBuffer);
+        DeepEquality.assertEquals(expected, decodeSingleObject(directBuffer, Object.class));
     }
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+package org.stenerud.remotefs.codec;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class EncodedValueCacheTest {
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        EncodedValueCache cache = new EncodedValueCache(10, 1000);
+        EncodedValue first = cache.get(Collections.singletonMap("a", 1L));
+        assertSame(first, cache.get(Collections.singletonMap("a", 1L)));
+        assertEquals(EncodedValue.of(Collections.singletonMap("a", 1L)), first);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(first.getEncodedLength(), cache.getByteCount());
+        cache.clear();
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getByteCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedByCount() throws Exception {
+        EncodedValueCache cache = new EncodedValueCache(2, 1000);
+        EncodedValue a = cache.get("a");
+        cache.get("b");
+        assertSame(a, cache.get("a"));
+        cache.get("c");
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(1, cache.getEvictionCount());
+        // "b" was least recently used.
+        assertSame(a, cache.get("a"));
+        long misses = cache.getMissCount();
+        cache.get("b");
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    @Test
+    public void testEvictsBySize() throws Exception {
+        // Each of these encodes to 13 bytes.
+        EncodedValueCache cache = new EncodedValueCache(100, 30);
+        cache.get(Arrays.asList("abcdefghi"));
+        cache.get(Arrays.asList("jklmnopqr"));
+        assertEquals(26, cache.getByteCount());
+        cache.get(Arrays.asList("stuvwxyz0"));
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(26, cache.getByteCount());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testTooLargeToCache() throws Exception {
+        EncodedValueCache cache = new EncodedValueCache(100, 5);
+        EncodedValue value = cache.get("much too long to cache");
+        assertEquals(EncodedValue.of("much too long to cache"), value);
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getByteCount());
+    }
+}
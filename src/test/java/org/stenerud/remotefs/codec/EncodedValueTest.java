@@ -0,0 +1,86 @@
+package org.stenerud.remotefs.codec;
+
+import org.junit.Test;
+import org.stenerud.remotefs.message.Specification;
+import org.stenerud.remotefs.utility.BinaryBuffer;
+import org.stenerud.remotefs.utility.DeepEquality;
+
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class EncodedValueTest {
+    private BinaryBuffer encode(Object value) throws Exception {
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(100);
+        encoder.writeObject(value);
+        return encoder.newView();
+    }
+
+    private Map<Object, Object> newCapabilities() {
+        Map<Object, Object> capabilities = new LinkedHashMap<>();
+        capabilities.put("version", 3L);
+        capabilities.put("compression", Arrays.asList("lz4", "zstd"));
+        capabilities.put("max_chunk", 65536L);
+        return capabilities;
+    }
+
+    @Test
+    public void testWrittenAsIs() throws Exception {
+        Map<Object, Object> capabilities = newCapabilities();
+        EncodedValue encodedValue = EncodedValue.of(capabilities);
+        assertEquals(encode(capabilities), encodedValue.getEncoded());
+        assertEquals(encode(Arrays.asList(1L, capabilities, "x")), encode(Arrays.asList(1L, encodedValue, "x")));
+        assertEquals(encodedValue.getEncodedLength(), BinaryCodec.sizeOf(encodedValue));
+        assertEquals(BinaryCodec.sizeOf(Collections.singletonList(capabilities)), BinaryCodec.sizeOf(Collections.singletonList(encodedValue)));
+        DeepEquality.assertEquals(capabilities, encodedValue.decode());
+    }
+
+    @Test
+    public void testWrittenToFlushingEncoder() throws Exception {
+        char[] chars = new char[100];
+        Arrays.fill(chars, 'z');
+        EncodedValue encodedValue = EncodedValue.of(Collections.singletonMap("long", new String(chars)));
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        try(ValueGenerator generator = new ValueGenerator(out, 16)) {
+            generator.writeObject(Arrays.asList(encodedValue, encodedValue));
+        }
+        assertEquals(encode(Arrays.asList(encodedValue.decode(), encodedValue.decode())), new BinaryBuffer(out.toByteArray()));
+    }
+
+    @Test
+    public void testTypes() throws Exception {
+        assertEquals(Specification.Type.BOOLEAN, EncodedValue.of(true).getType());
+        assertEquals(Specification.Type.INTEGER, EncodedValue.of(5).getType());
+        assertEquals(Specification.Type.INTEGER, EncodedValue.of(-100000L).getType());
+        assertEquals(Specification.Type.FLOAT, EncodedValue.of(1.5).getType());
+        assertEquals(Specification.Type.STRING, EncodedValue.of("s").getType());
+        assertEquals(Specification.Type.BYTES, EncodedValue.of(new byte[] {1}).getType());
+        assertEquals(Specification.Type.DATE, EncodedValue.of(Instant.now()).getType());
+        assertEquals(Specification.Type.LIST, EncodedValue.of(Collections.emptyList()).getType());
+        assertEquals(Specification.Type.MAP, EncodedValue.of(newCapabilities()).getType());
+        assertEquals(Specification.Type.NULL, EncodedValue.of(null).getType());
+        assertEquals(Specification.Type.ANY, EncodedValue.of(new long[] {1, 2}).getType());
+    }
+
+    @Test
+    public void testWrap() throws Exception {
+        BinaryBuffer encoded = encode(newCapabilities());
+        assertEquals(EncodedValue.of(newCapabilities()), EncodedValue.wrap(encoded));
+        assertInvalidWrap(encoded.newView(encoded.startOffset, encoded.endOffset - 1));
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(100);
+        encoder.writeObject(1);
+        encoder.writeObject(2);
+        assertInvalidWrap(encoder.newView());
+        assertInvalidWrap(new BinaryBuffer(new byte[0]));
+    }
+
+    private void assertInvalidWrap(BinaryBuffer encoded) {
+        try {
+            EncodedValue.wrap(encoded);
+            fail("Expected IllegalArgumentException");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
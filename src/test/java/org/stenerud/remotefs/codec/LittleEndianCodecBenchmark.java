@@ -0,0 +1,72 @@
+package org.stenerud.remotefs.codec;
+
+import org.stenerud.remotefs.utility.BinaryBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Compares LittleEndianCodec's single wide load for 24, 48 and 56-bit integers against assembling
+ * them from smaller loads.
+ * Run with: java -cp [test and main classes] org.stenerud.remotefs.codec.LittleEndianCodecBenchmark
+ */
+public class LittleEndianCodecBenchmark {
+    private static final int VALUE_COUNT = 1 << 16;
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int MEASURED_ROUNDS = 1000;
+
+    public static void main(String[] args) {
+        BinaryBuffer buffer = new BinaryBuffer(VALUE_COUNT * 8 + 8);
+        new Random(1).nextBytes(buffer.data);
+        LittleEndianCodec codec = new LittleEndianCodec(buffer);
+        ByteBuffer byteBuffer = buffer.asByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+
+        for(int width: new int[] {3, 6, 7}) {
+            run(codec, byteBuffer, width);
+        }
+    }
+
+    private static void run(LittleEndianCodec codec, ByteBuffer byteBuffer, int width) {
+        long checksum = measure(codec, byteBuffer, width, true, WARMUP_ROUNDS) ^ measure(codec, byteBuffer, width, false, WARMUP_ROUNDS);
+        long startTime = System.nanoTime();
+        checksum ^= measure(codec, byteBuffer, width, true, MEASURED_ROUNDS);
+        double wideTime = (double)(System.nanoTime() - startTime) / ((long)VALUE_COUNT * MEASURED_ROUNDS);
+        startTime = System.nanoTime();
+        checksum ^= measure(codec, byteBuffer, width, false, MEASURED_ROUNDS);
+        double splitTime = (double)(System.nanoTime() - startTime) / ((long)VALUE_COUNT * MEASURED_ROUNDS);
+        System.out.printf("int%d: wide %.2f ns/value, split %.2f ns/value (%.2fx) [%d]%n",
+                width * 8, wideTime, splitTime, splitTime / wideTime, checksum & 0xff);
+    }
+
+    private static long measure(LittleEndianCodec codec, ByteBuffer byteBuffer, int width, boolean wide, int rounds) {
+        long sum = 0;
+        int endOffset = VALUE_COUNT * width;
+        for(int round = 0; round < rounds; round++) {
+            for(int offset = 0; offset < endOffset; offset += width) {
+                sum += wide ? decodeWide(codec, width, offset) : decodeSplit(byteBuffer, width, offset);
+            }
+        }
+        return sum;
+    }
+
+    private static long decodeWide(LittleEndianCodec codec, int width, int offset) {
+        switch(width) {
+            case 3: return codec.decodeInt24(offset);
+            case 6: return codec.decodeInt48(offset);
+            default: return codec.decodeInt56(offset);
+        }
+    }
+
+    /**
+     * The decoding LittleEndianCodec did before it used wide loads.
+     */
+    private static long decodeSplit(ByteBuffer byteBuffer, int width, int offset) {
+        switch(width) {
+            case 3: return (byteBuffer.getShort(offset) & 0xffff) | (byteBuffer.get(offset + 2) << 16);
+            case 6: return (byteBuffer.getInt(offset) & 0xffffffffL) | ((long)byteBuffer.getShort(offset + 4) << 32);
+            default: return (byteBuffer.getInt(offset) & 0xffffffffL) | ((byteBuffer.getShort(offset + 4) & 0xffffL) << 32)
+                    | ((long)byteBuffer.get(offset + 6) << 48);
+        }
+    }
+}
@@ -76,4 +76,48 @@ public class LittleEndianCodecTest {
         }
         DeepEquality.assertEquals(expected, actual);
     }
+
+    @Test
+    public void testOddWidthIntegers() {
+        long[] values = {0, 1, -1, 0x123456789abcdeL, -0x123456789abcdeL, 0x7fffffffffffffL, -0x80000000000000L};
+        int[] widths = {3, 5, 6, 7};
+        for(int width: widths) {
+            for(long value: values) {
+                int shift = 64 - width * 8;
+                long expected = (value << shift) >> shift;
+                // Both with trailing data in the buffer and with the value at the very end.
+                for(int padding: new int[] {0, 1, 8}) {
+                    BinaryBuffer buffer = new BinaryBuffer(2 + width + padding);
+                    for(int i = 0; i < buffer.length; i++) {
+                        buffer.put(i, (byte)0xa5);
+                    }
+                    LittleEndianCodec codec = new LittleEndianCodec(buffer);
+                    assertEquals(width, encodeOddWidth(codec, width, 2, value));
+                    assertEquals((byte)0xa5, buffer.get(1));
+                    if(padding > 0) {
+                        assertEquals((byte)0xa5, buffer.get(2 + width));
+                    }
+                    assertEquals(expected, decodeOddWidth(codec, width, 2));
+                }
+            }
+        }
+    }
+
+    private int encodeOddWidth(LittleEndianCodec codec, int width, int offset, long value) {
+        switch(width) {
+            case 3: return codec.encodeInt24(offset, (int)value);
+            case 5: return codec.encodeInt40(offset, value);
+            case 6: return codec.encodeInt48(offset, value);
+            default: return codec.encodeInt56(offset, value);
+        }
+    }
+
+    private long decodeOddWidth(LittleEndianCodec codec, int width, int offset) {
+        switch(width) {
+            case 3: return codec.decodeInt24(offset);
+            case 5: return codec.decodeInt40(offset);
+            case 6: return codec.decodeInt48(offset);
+            default: return codec.decodeInt56(offset);
+        }
+    }
 }
@@ -0,0 +1,80 @@
+package org.stenerud.remotefs.codec;
+
+import org.junit.Test;
+import org.stenerud.remotefs.utility.BinaryBuffer;
+import org.stenerud.remotefs.utility.DeepEquality;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MappedValueFileTest {
+    @Test
+    public void testReadAcrossWindows() throws Exception {
+        List<Object> values = new ArrayList<>();
+        for(int i = 0; i < 200; i++) {
+            values.add(Collections.singletonMap("name", "file" + i));
+            values.add((long)i * 100000);
+        }
+        values.add(new BinaryBuffer(new byte[1000]));
+        values.add("last");
+        File file = writeValues(values);
+
+        for(int windowLength: new int[] {1, 7, 64, 1000000}) {
+            List<Object> results = new ArrayList<>();
+            try(MappedValueFile mappedFile = new MappedValueFile(file.toPath(), windowLength, false)) {
+                mappedFile.visitRemaining(results::add);
+                assertEquals(file.length(), mappedFile.getPosition());
+                assertFalse(mappedFile.hasNext());
+            }
+            DeepEquality.assertEquals(values, results);
+        }
+    }
+
+    @Test
+    public void testLazyContainers() throws Exception {
+        File file = writeValues(Arrays.asList(Arrays.asList(1L, 2L, 3L), "after"));
+        try(MappedValueFile mappedFile = new MappedValueFile(file.toPath(), 4, true)) {
+            List<?> list = (List<?>)mappedFile.next();
+            assertEquals("after", mappedFile.next());
+            assertEquals(3L, list.get(2));
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        File file = writeValues(Collections.emptyList());
+        try(MappedValueFile mappedFile = new MappedValueFile(file.toPath())) {
+            assertFalse(mappedFile.hasNext());
+        }
+    }
+
+    @Test(expected = BinaryCodec.EndOfDataException.class)
+    public void testTruncatedFile() throws Exception {
+        File file = writeValues(Arrays.asList("complete", "truncated"));
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(file.length() - 1);
+        }
+        try(MappedValueFile mappedFile = new MappedValueFile(file.toPath(), 5, false)) {
+            assertEquals("complete", mappedFile.next());
+            mappedFile.next();
+        }
+    }
+
+    private File writeValues(List<Object> values) throws Exception {
+        File file = File.createTempFile("values", ".bin");
+        file.deleteOnExit();
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newChained(100);
+        for(Object value: values) {
+            encoder.writeObject(value);
+        }
+        try(OutputStream outStream = new FileOutputStream(file)) {
+            encoder.newCompositeView().writeTo(outStream);
+        }
+        return file;
+    }
+}
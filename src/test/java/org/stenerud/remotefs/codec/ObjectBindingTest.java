@@ -0,0 +1,206 @@
+package org.stenerud.remotefs.codec;
+
+import org.junit.Test;
+import org.stenerud.remotefs.utility.BinaryBuffer;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ObjectBindingTest {
+    static class Entry {
+        String name;
+        long size;
+        int mode;
+        short links;
+        double ratio;
+        float weight;
+        boolean isDirectory;
+        Long inode;
+        Integer owner;
+        Instant modified;
+        byte[] checksum;
+        int[] blocks;
+        List<Object> tags;
+        Entry parent;
+        transient int ignored = 7;
+    }
+
+    static class Base {
+        long id;
+    }
+
+    static class Derived extends Base {
+        String label;
+    }
+
+    static final class Point {
+        private final int x;
+        private final double y;
+
+        Point(int x, double y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    static class Shape {
+        String name;
+        Point origin;
+        Point[] ignoredArray;
+    }
+
+    private Entry newEntry() {
+        Entry parent = new Entry();
+        parent.name = "/";
+        parent.isDirectory = true;
+        Entry entry = new Entry();
+        entry.name = "file.txt";
+        entry.size = 10000000000L;
+        entry.mode = 0644;
+        entry.links = -2;
+        entry.ratio = 1.1;
+        entry.weight = 2.5f;
+        entry.inode = 12345L;
+        entry.owner = 1000;
+        entry.modified = Instant.parse("2017-12-03T10:15:30.000001Z");
+        entry.checksum = new byte[] {1, 2, 3};
+        entry.blocks = new int[] {100, 200, 300000};
+        entry.tags = Arrays.asList("a", 1L);
+        entry.parent = parent;
+        entry.ignored = 8;
+        return entry;
+    }
+
+    private BinaryBuffer encode(Object value) throws Exception {
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(100);
+        encoder.writeObject(value);
+        return encoder.newView();
+    }
+
+    private void assertEntryEquals(Entry expected, Entry actual) {
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.size, actual.size);
+        assertEquals(expected.mode, actual.mode);
+        assertEquals(expected.links, actual.links);
+        assertEquals(expected.ratio, actual.ratio, 0);
+        assertEquals(expected.weight, actual.weight, 0);
+        assertEquals(expected.isDirectory, actual.isDirectory);
+        assertEquals(expected.inode, actual.inode);
+        assertEquals(expected.owner, actual.owner);
+        assertEquals(expected.modified, actual.modified);
+        assertArrayEquals(expected.checksum, actual.checksum);
+        assertArrayEquals(expected.blocks, actual.blocks);
+        assertEquals(expected.tags, actual.tags);
+        assertEquals(7, actual.ignored);
+        if(expected.parent == null) {
+            assertNull(actual.parent);
+        } else {
+            assertEntryEquals(expected.parent, actual.parent);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ObjectBinding<Entry> binding = ObjectBinding.register(Entry.class);
+        Entry entry = newEntry();
+        BinaryBuffer encoded = encode(entry);
+        assertEquals(encoded.length, BinaryCodec.sizeOf(entry));
+        assertEntryEquals(entry, binding.decode(encoded));
+        assertEncodedAsMap(encoded);
+
+        BinaryBuffer encodedList = encode(Arrays.asList(entry, entry));
+        BinaryCodec.TokenReader reader = new BinaryCodec.TokenReader(encodedList);
+        reader.nextToken();
+        reader.enterContainer();
+        for(int i = 0; i < 2; i++) {
+            reader.nextToken();
+            assertEntryEquals(entry, binding.read(reader));
+        }
+        assertEquals(BinaryCodec.TokenReader.Token.END_CONTAINER, reader.nextToken());
+    }
+
+    private void assertEncodedAsMap(BinaryBuffer encoded) throws Exception {
+        Object[] holder = new Object[1];
+        new BinaryCodec.Decoder(value -> holder[0] = value).feed(encoded);
+        Map<?, ?> map = (Map<?, ?>)holder[0];
+        assertEquals("file.txt", map.get("name"));
+        assertEquals(10000000000L, map.get("size"));
+        assertFalse(map.containsKey("ignored"));
+        assertEquals("/", ((Map<?, ?>)map.get("parent")).get("name"));
+    }
+
+    @Test
+    public void testInheritedFields() throws Exception {
+        Derived derived = new Derived();
+        derived.id = 5;
+        derived.label = "five";
+        ObjectBinding<Derived> binding = ObjectBinding.of(Derived.class);
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(100);
+        binding.write(encoder, derived);
+        Derived result = binding.decode(encoder.newView());
+        assertEquals(5, result.id);
+        assertEquals("five", result.label);
+    }
+
+    @Test
+    public void testFieldConstructor() throws Exception {
+        Shape shape = new Shape();
+        shape.name = "dot";
+        shape.origin = new Point(3, 4.5);
+        ObjectBinding<Shape> binding = ObjectBinding.of(Shape.class);
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(100);
+        binding.write(encoder, shape);
+        assertEquals(encoder.newView().length, binding.sizeOf(shape));
+        Shape result = binding.decode(encoder.newView());
+        assertEquals("dot", result.name);
+        assertEquals(3, result.origin.x);
+        assertEquals(4.5, result.origin.y, 0);
+        assertNull(result.ignoredArray);
+    }
+
+    @Test
+    public void testUnknownAndReorderedKeys() throws Exception {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        map.put("label", "x");
+        map.put("unknown", Arrays.asList(1L, 2L));
+        map.put("id", 9L);
+        Derived result = ObjectBinding.of(Derived.class).decode(encode(map));
+        assertEquals(9, result.id);
+        assertEquals("x", result.label);
+        assertNull(ObjectBinding.of(Derived.class).decode(encode(null)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrongFieldType() throws Exception {
+        ObjectBinding.of(Derived.class).decode(encode(java.util.Collections.singletonMap("label", 5L)));
+    }
+
+    @Test
+    public void testIntegerOutOfRange() throws Exception {
+        long tooLarge = 1L << 40;
+        assertOutOfRange(Entry.class, "mode", tooLarge);
+        assertOutOfRange(Entry.class, "links", 40000L);
+        assertOutOfRange(Entry.class, "owner", tooLarge);
+        assertOutOfRange(Entry.class, "blocks", new long[] {1, tooLarge});
+        assertOutOfRange(Point.class, "x", tooLarge);
+    }
+
+    private void assertOutOfRange(Class<?> type, String fieldName, Object value) throws Exception {
+        try {
+            ObjectBinding.of(type).decode(encode(java.util.Collections.singletonMap(fieldName, value)));
+            fail("Expected IllegalStateException for " + fieldName);
+        } catch(IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(fieldName));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnbindableClass() throws Exception {
+        ObjectBinding.of(String.class);
+    }
+}
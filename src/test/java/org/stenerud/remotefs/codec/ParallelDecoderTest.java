@@ -0,0 +1,102 @@
+package org.stenerud.remotefs.codec;
+
+import org.junit.Test;
+import org.stenerud.remotefs.utility.BinaryBuffer;
+import org.stenerud.remotefs.utility.DeepEquality;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ParallelDecoderTest {
+    private final ParallelDecoder decoder = new ParallelDecoder(new ForkJoinPool(4), BinaryCodec.Decoder.Options.DEFAULT, 10);
+
+    private List<Object> newValues(int count) {
+        List<Object> values = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            switch(i % 5) {
+                case 0: values.add((long)i); break;
+                case 1: values.add("value " + i); break;
+                case 2: values.add(Arrays.asList((long)i, "x", Collections.singletonMap("k", (long)i))); break;
+                case 3: values.add(null); break;
+                default: values.add(new BinaryBuffer(new byte[] {(byte)i, 2, 3})); break;
+            }
+        }
+        return values;
+    }
+
+    private BinaryBuffer encodeEach(List<Object> values) throws Exception {
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(100);
+        for(Object value: values) {
+            encoder.writeObject(value);
+        }
+        return encoder.newView();
+    }
+
+    private void assertDeepEquals(Object expected, Object actual) {
+        DeepEquality.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testDecodeTopLevelValues() throws Exception {
+        for(int count: new int[] {0, 1, 9, 10, 11, 1000, 5000}) {
+            List<Object> expected = newValues(count);
+            List<Object> actual = new ArrayList<>();
+            decoder.decode(encodeEach(expected), actual::add);
+            assertDeepEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testDecodeList() throws Exception {
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(100);
+        encoder.writeObject(newValues(2000));
+        BinaryBuffer encoded = encoder.newView();
+        List<Object> expected = new ArrayList<>();
+        new BinaryCodec.Decoder(expected::add).feed(encoded);
+        List<Object> actual = decoder.decodeList(encoded);
+        assertDeepEquals(expected.get(0), actual);
+        assertFalse(actual.contains(null));
+        actual.add("growable");
+        encoder = BinaryCodec.Encoder.newGrowing(100);
+        encoder.writeObject(Collections.emptyList());
+        assertEquals(0, decoder.decodeList(encoder.newView()).size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDecodeListNotAList() throws Exception {
+        decoder.decodeList(encodeEach(Arrays.asList(1L)));
+    }
+
+    @Test(expected = BinaryCodec.EndOfDataException.class)
+    public void testDecodeListTruncated() throws Exception {
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(100);
+        encoder.writeObject(newValues(100));
+        BinaryBuffer encoded = encoder.newView();
+        decoder.decodeList(encoded.newView(encoded.startOffset, encoded.endOffset - 1));
+    }
+
+    @Test
+    public void testTruncatedReportsNothing() throws Exception {
+        BinaryBuffer encoded = encodeEach(newValues(100));
+        List<Object> actual = new ArrayList<>();
+        try {
+            decoder.decode(encoded.newView(encoded.startOffset, encoded.endOffset - 1), actual::add);
+            fail("Expected EndOfDataException");
+        } catch(BinaryCodec.EndOfDataException e) {
+            // Expected
+        }
+        assertTrue(actual.isEmpty());
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        List<Object> expected = newValues(3000);
+        BinaryBuffer encoded = encodeEach(expected);
+        assertDeepEquals(expected, ParallelDecoder.stream(encoded, BinaryCodec.Decoder.Options.DEFAULT).collect(Collectors.toList()));
+        assertDeepEquals(expected, ParallelDecoder.stream(encoded, BinaryCodec.Decoder.Options.DEFAULT).parallel().collect(Collectors.toList()));
+        assertEquals(3000, ParallelDecoder.spliterator(encoded, BinaryCodec.Decoder.Options.DEFAULT).getExactSizeIfKnown());
+    }
+}
@@ -0,0 +1,89 @@
+package org.stenerud.remotefs.codec;
+
+import org.junit.Test;
+import org.stenerud.remotefs.utility.BinaryBuffer;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ParallelEncoderTest {
+    private BinaryBuffer encodeSequentially(Object value) throws Exception {
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(100);
+        encoder.writeObject(value);
+        return encoder.newView();
+    }
+
+    private void assertParallelEncoding(ParallelEncoder encoder, Object value) throws Exception {
+        assertEquals(encodeSequentially(value), encoder.encode(value).newCopy());
+    }
+
+    private List<Object> newList(int size) {
+        List<Object> list = new ArrayList<>();
+        for(int i = 0; i < size; i++) {
+            switch(i % 4) {
+                case 0: list.add((long)i * 1000); break;
+                case 1: list.add("element " + i); break;
+                case 2: list.add(Arrays.asList(i, 1.5)); break;
+                default: list.add(null); break;
+            }
+        }
+        return list;
+    }
+
+    @Test
+    public void testLargeList() throws Exception {
+        ParallelEncoder encoder = new ParallelEncoder(new ForkJoinPool(4), 100);
+        assertParallelEncoding(encoder, newList(10000));
+        assertParallelEncoding(encoder, new LinkedList<>(newList(1001)));
+    }
+
+    @Test
+    public void testLargeMap() throws Exception {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        for(int i = 0; i < 5000; i++) {
+            map.put("key " + i, i % 2 == 0 ? i : newList(3));
+        }
+        assertParallelEncoding(new ParallelEncoder(new ForkJoinPool(4), 64), map);
+    }
+
+    @Test
+    public void testNestedLargeContainers() throws Exception {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        map.put("a", newList(500));
+        map.put("b", 1);
+        map.put("c", newList(2000));
+        List<Object> list = new ArrayList<>(newList(300));
+        list.add(150, map);
+        list.add(newList(1000));
+        assertParallelEncoding(new ParallelEncoder(new ForkJoinPool(3), 50), list);
+    }
+
+    @Test
+    public void testFastProfile() throws Exception {
+        List<Object> list = newList(1000);
+        BinaryCodec.Encoder sequential = BinaryCodec.Encoder.newGrowing(100);
+        sequential.setProfile(BinaryCodec.Encoder.Profile.FAST);
+        sequential.writeObject(list);
+        ParallelEncoder encoder = new ParallelEncoder(new ForkJoinPool(4), 100, BinaryCodec.Encoder.Profile.FAST);
+        assertEquals(sequential.newView(), encoder.encode(list).newCopy());
+        assertNotEquals(encodeSequentially(list), encoder.encode(list).newCopy());
+    }
+
+    @Test
+    public void testSmallValues() throws Exception {
+        ParallelEncoder encoder = new ParallelEncoder();
+        assertParallelEncoding(encoder, null);
+        assertParallelEncoding(encoder, "text");
+        assertParallelEncoding(encoder, newList(10));
+        assertParallelEncoding(encoder, Collections.emptyMap());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnencodableElement() throws Exception {
+        List<Object> list = newList(1000);
+        list.add(500, new Object());
+        new ParallelEncoder(new ForkJoinPool(2), 10).encode(list);
+    }
+}
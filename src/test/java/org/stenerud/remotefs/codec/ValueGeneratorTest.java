@@ -0,0 +1,164 @@
+package org.stenerud.remotefs.codec;
+
+import org.junit.Test;
+import org.stenerud.remotefs.utility.BinaryBuffer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ValueGeneratorTest {
+    private static class RecordingOutputStream extends ByteArrayOutputStream {
+        int maxWriteLength;
+        boolean isClosed;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            maxWriteLength = Math.max(maxWriteLength, len);
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            isClosed = true;
+        }
+    }
+
+    private BinaryBuffer encode(Object value) throws Exception {
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(100);
+        encoder.writeObject(value);
+        return encoder.newView();
+    }
+
+    private Map<Object, Object> newEntry(int index) {
+        Map<Object, Object> entry = new LinkedHashMap<>();
+        entry.put("name", "file-" + index);
+        entry.put("size", index * 1000L);
+        entry.put("children", Arrays.asList(index, "x"));
+        return entry;
+    }
+
+    @Test
+    public void testLargeListWithSmallBuffer() throws Exception {
+        int bufferLength = 64;
+        List<Object> expected = new ArrayList<>();
+        RecordingOutputStream out = new RecordingOutputStream();
+        try(ValueGenerator generator = new ValueGenerator(out, bufferLength)) {
+            generator.beginList();
+            for(int i = 0; i < 5000; i++) {
+                Map<Object, Object> entry = newEntry(i);
+                expected.add(entry);
+                generator.beginMap();
+                for(Map.Entry<Object, Object> field: entry.entrySet()) {
+                    generator.writeObject(field.getKey());
+                    generator.writeObject(field.getValue());
+                }
+                generator.endContainer();
+            }
+            generator.endContainer();
+        }
+        assertTrue(out.isClosed);
+        assertTrue(out.maxWriteLength <= bufferLength);
+        assertEquals(encode(expected), new BinaryBuffer(out.toByteArray()));
+    }
+
+    @Test
+    public void testValueLargerThanBuffer() throws Exception {
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'a');
+        List<Object> expected = Arrays.asList(1L, new String(chars), new BinaryBuffer(new byte[500]), "end");
+        RecordingOutputStream out = new RecordingOutputStream();
+        try(ValueGenerator generator = new ValueGenerator(out, 16)) {
+            generator.writeObject(expected);
+        }
+        assertEquals(encode(expected), new BinaryBuffer(out.toByteArray()));
+    }
+
+    @Test
+    public void testFlushReachesUnderlyingStream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ValueGenerator generator = new ValueGenerator(new BufferedOutputStream(out, 1000));
+        generator.beginList();
+        generator.writeObject(newEntry(1));
+        generator.flush();
+        BinaryBuffer entry = encode(newEntry(1));
+        assertEquals(1 + entry.length, out.size());
+        generator.endContainer();
+        generator.close();
+        assertArrayEquals(encode(Collections.singletonList(newEntry(1))).newCopy().data, out.toByteArray());
+    }
+
+    @Test
+    public void testChannel() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(ValueGenerator generator = new ValueGenerator(Channels.newChannel(out), 8)) {
+            generator.writeObject(newEntry(1));
+            generator.writeString("second");
+            generator.flush();
+            assertEquals(encode(newEntry(1)).length + encode("second").length, out.size());
+        }
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(100);
+        encoder.writeObject(newEntry(1));
+        encoder.writeString("second");
+        assertEquals(encoder.newView(), new BinaryBuffer(out.toByteArray()));
+    }
+
+    @Test
+    public void testUnendedContainer() throws Exception {
+        RecordingOutputStream out = new RecordingOutputStream();
+        ValueGenerator generator = new ValueGenerator(out);
+        generator.beginList();
+        generator.beginMap();
+        generator.endContainer();
+        try {
+            generator.close();
+            fail("Expected IllegalStateException");
+        } catch(IllegalStateException e) {
+            // Expected
+        }
+        assertTrue(out.isClosed);
+        assertEquals(0, out.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTooManyEnds() throws Exception {
+        new ValueGenerator(new ByteArrayOutputStream()).endContainer();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWriteAfterClose() throws Exception {
+        ValueGenerator generator = new ValueGenerator(new ByteArrayOutputStream());
+        generator.close();
+        generator.writeObject(1);
+    }
+
+    @Test
+    public void testDestinationError() throws Exception {
+        IOException error = new IOException("disk full");
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw error;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw error;
+            }
+        };
+        ValueGenerator generator = new ValueGenerator(out, 16);
+        try {
+            for(int i = 0; i < 100; i++) {
+                generator.writeObject("value " + i);
+            }
+            fail("Expected IOException");
+        } catch(IOException e) {
+            assertSame(error, e);
+        }
+    }
+}
@@ -1,10 +1,26 @@
 package org.stenerud.remotefs.message;
 
 import org.junit.Test;
+import org.stenerud.remotefs.codec.BinaryCodec;
+import org.stenerud.remotefs.codec.EncodedValue;
 import org.stenerud.remotefs.codec.MessageCodec;
+import org.stenerud.remotefs.codec.SpecificationCodec;
+import org.stenerud.remotefs.exception.NotFoundException;
 import org.stenerud.remotefs.utility.BinaryBuffer;
+import org.stenerud.remotefs.utility.Decimal128Holder;
 import org.stenerud.remotefs.utility.DeepEquality;
+import org.stenerud.remotefs.utility.StringCache;
 
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class MessageCodecTest {
@@ -70,6 +86,152 @@ public class MessageCodecTest {
         assertBadMessageLength(0x800000);
     }
 
+    @Test
+    public void testEncodedSize() throws Exception {
+        MessageCodec messageCodec = getStandardMessageCodec();
+        assertEncodedSize(messageCodec, new ExceptionMessageBuilder().newMessage((long)1, null, 10, "It's broken!", null));
+        assertEncodedSize(messageCodec, new ProcessStatusMessageBuilder().newMessage(1, 50));
+        assertEncodedSize(messageCodec, new ResourceMessageBuilder().newMessage(1, 1, 0, new byte[0x7a]));
+        assertEncodedSize(messageCodec, new ResourceMessageBuilder().newMessage(1, 1, 0, new byte[100000]));
+    }
+
+    @Test
+    public void testFastProfile() throws Exception {
+        MessageCodec messageCodec = getStandardMessageCodec();
+        Message message = new ProcessStatusMessageBuilder().newMessage(1, 50);
+        BinaryBuffer compact = messageCodec.encode(message, new BinaryBuffer(100));
+        BinaryBuffer fast = messageCodec.encode(message, new BinaryBuffer(100), BinaryCodec.Encoder.Profile.FAST);
+        assertTrue(fast.length > compact.length);
+        assertEquals(compact, messageCodec.encode(messageCodec.decode(fast), new BinaryBuffer(100)));
+    }
+
+    @Test
+    public void testDecodeWithStringCache() throws Exception {
+        MessageCodec messageCodec = getStandardMessageCodec();
+        StringCache cache = new StringCache(16);
+        messageCodec.setStringCache(cache);
+        BinaryBuffer encoded = messageCodec.encode(new ExceptionMessageBuilder().newMessage((long)1, null, 10, "It's broken!", null));
+        Message first = messageCodec.decode(encoded);
+        Message second = messageCodec.decode(encoded);
+        assertSame(first.getObject("message"), second.getObject("message"));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testExtract() throws Exception {
+        MessageCodec messageCodec = getStandardMessageCodec();
+        Map<Object, Object> contextInfo = new HashMap<>();
+        contextInfo.put("path", Arrays.asList("/", "home", "user", "file.txt"));
+        BinaryBuffer encoded = messageCodec.encode(new ExceptionMessageBuilder().newMessage(null, 5L, 10, "It's broken!", contextInfo));
+        assertEquals("file.txt", messageCodec.extract(encoded, "context_info", "path", 3));
+        assertEquals("It's broken!", messageCodec.extract(encoded, "message"));
+        assertEquals(5L, messageCodec.extract(encoded, "resource_id"));
+        assertNull(messageCodec.extract(encoded, "process_id"));
+        assertNull(messageCodec.extract(encoded, "context_info", "missing"));
+    }
+
+    private static final Specification ALL_TYPES_SPECIFICATION = new Specification("all types", "Every parameter type",
+            new Specification.ParameterSpecification("boolean", Specification.Type.BOOLEAN, ""),
+            new Specification.ParameterSpecification("integer", Specification.Type.INTEGER, ""),
+            new Specification.ParameterSpecification("float", Specification.Type.FLOAT, ""),
+            new Specification.ParameterSpecification("decimal", Specification.Type.DECIMAL, ""),
+            new Specification.ParameterSpecification("string", Specification.Type.STRING, ""),
+            new Specification.ParameterSpecification("bytes", Specification.Type.BYTES, ""),
+            new Specification.ParameterSpecification("date", Specification.Type.DATE, ""),
+            new Specification.ParameterSpecification("list", Specification.Type.LIST, ""),
+            new Specification.ParameterSpecification("map", Specification.Type.MAP, ""),
+            new Specification.ParameterSpecification("any", Specification.Type.ANY, ""),
+            new Specification.ParameterSpecification("stream", Specification.Type.BYTES, "", Specification.Attribute.STREAMABLE),
+            new Specification.ParameterSpecification("optional", Specification.Type.STRING, "", Specification.Attribute.OPTIONAL));
+
+    @Test
+    public void testSpecificationCodec() throws Exception {
+        Message message = new Message(ALL_TYPES_SPECIFICATION)
+                .set("boolean", true)
+                .set("integer", 100000)
+                .set("float", 1.1)
+                .set("decimal", new Decimal128Holder(1, 2))
+                .set("string", "a string")
+                .set("bytes", new BinaryBuffer(new byte[] {1, 2, 3}))
+                .set("date", Instant.parse("2017-12-03T10:15:30Z"))
+                .set("list", Arrays.asList(1L, "two"))
+                .set("map", Collections.singletonMap("key", "value"))
+                .set("any", 5.5)
+                .set("stream", 10L);
+        BinaryCodec.Encoder expected = BinaryCodec.Encoder.newGrowing(100);
+        for(Object value: message) {
+            expected.writeObject(value);
+        }
+        SpecificationCodec codec = new SpecificationCodec(ALL_TYPES_SPECIFICATION);
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(100);
+        int length = codec.writeParameters(encoder, message);
+        assertEquals(expected.newView(), encoder.newView());
+        assertEquals(length, codec.sizeOf(message));
+        assertEquals(length, encoder.newView().length);
+
+        Message result = new Message(ALL_TYPES_SPECIFICATION);
+        codec.readParameters(encoder.newView(), result, null);
+        result.verifyCompleteness();
+        for(Specification.ParameterSpecification paramSpec: ALL_TYPES_SPECIFICATION) {
+            if(message.isPresent(paramSpec.name)) {
+                assertEquals(paramSpec.name, message.isStream(paramSpec.name), result.isStream(paramSpec.name));
+                DeepEquality.assertEquals(message.getObject(paramSpec.name), result.getObject(paramSpec.name));
+            } else {
+                assertFalse(result.isPresent(paramSpec.name));
+            }
+        }
+    }
+
+    @Test
+    public void testSpecificationCodecConvertsDecodedValues() throws Exception {
+        Specification specification = new Specification("floats", "",
+                new Specification.ParameterSpecification("float", Specification.Type.FLOAT, ""));
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(10);
+        encoder.writeLong(3);
+        Message result = new Message(specification);
+        new SpecificationCodec(specification).readParameters(encoder.newView(), result, null);
+        assertEquals(3.0, result.getObject("float"));
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testSpecificationCodecTooManyParameters() throws Exception {
+        Specification specification = new Specification("floats", "",
+                new Specification.ParameterSpecification("float", Specification.Type.FLOAT, ""));
+        BinaryCodec.Encoder encoder = BinaryCodec.Encoder.newGrowing(10);
+        encoder.writeDouble(1.5);
+        encoder.writeDouble(2.5);
+        new SpecificationCodec(specification).readParameters(encoder.newView(), new Message(specification), null);
+    }
+
+    @Test
+    public void testEncodedValueParameter() throws Exception {
+        MessageCodec messageCodec = getStandardMessageCodec();
+        Map<Object, Object> contextInfo = new HashMap<>();
+        contextInfo.put("path", Arrays.asList("usr", "local", "file.txt"));
+        contextInfo.put("errno", 2L);
+        Message plain = new ExceptionMessageBuilder().newMessage((long)1, null, 10, "It's broken!", contextInfo);
+        Message preencoded = new ExceptionMessageBuilder().newMessage((long)1, null, 10, "It's broken!", null)
+                .set("context_info", EncodedValue.of(contextInfo));
+        BinaryBuffer expected = messageCodec.encode(plain);
+        assertEquals(expected, messageCodec.encode(preencoded));
+        assertEquals(expected.length, messageCodec.encodedSize(preencoded));
+        DeepEquality.assertEquals(contextInfo, messageCodec.decode(messageCodec.encode(preencoded)).getObject("context_info"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodedValueParameterWrongType() throws Exception {
+        new ExceptionMessageBuilder().newMessage((long)1, null, 10, null, null).set("context_info", EncodedValue.of("not a map"));
+    }
+
+    private void assertEncodedSize(MessageCodec messageCodec, Message message) throws Exception {
+        int expected = messageCodec.encode(message, new BinaryBuffer(200000)).length;
+        assertEquals(expected, messageCodec.encodedSize(message));
+        BinaryBuffer encoded = messageCodec.encode(message);
+        assertEquals(expected, encoded.data.length);
+        assertEquals(encoded, messageCodec.encode(messageCodec.decode(encoded)));
+    }
+
     private void assertResourceMessage(int chunkSize) throws Exception {
         assertEncodeDecode(new ResourceMessageBuilder().newMessage(1, 1, 0,new byte[chunkSize]),chunkSize + 100);
     }
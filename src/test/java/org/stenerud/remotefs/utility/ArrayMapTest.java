@@ -0,0 +1,57 @@
+package org.stenerud.remotefs.utility;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ArrayMapTest {
+    @Test
+    public void testBehavesLikeHashMap() {
+        Map<Object, Object> expected = new HashMap<>();
+        Map<Object, Object> actual = new ArrayMap<>(1);
+        for(int i = 0; i < 20; i++) {
+            assertEquals(expected.put("key" + (i % 7), i), actual.put("key" + (i % 7), i));
+            assertEquals(expected.put(i, null), actual.put(i, null));
+        }
+        assertEquals(expected.put(null, "null key"), actual.put(null, "null key"));
+        assertEquals(expected.remove("key3"), actual.remove("key3"));
+        assertEquals(expected.remove("missing"), actual.remove("missing"));
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, actual);
+        assertEquals(actual, expected);
+        assertEquals(expected.hashCode(), actual.hashCode());
+        assertTrue(actual.containsKey(5));
+        assertNull(actual.get(5));
+        assertEquals("null key", actual.get(null));
+    }
+
+    @Test
+    public void testIteratorRemoveAndSetValue() {
+        Map<String, Integer> map = new ArrayMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put("c", 3);
+        Iterator<Map.Entry<String, Integer>> iterator = map.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<String, Integer> entry = iterator.next();
+            if(entry.getKey().equals("b")) {
+                iterator.remove();
+            } else {
+                entry.setValue(entry.getValue() * 10);
+            }
+        }
+        assertEquals(Arrays.asList("a", "c"), new ArrayList<>(map.keySet()));
+        assertEquals(Arrays.asList(10, 30), new ArrayList<>(map.values()));
+    }
+
+    @Test
+    public void testClear() {
+        Map<String, Integer> map = new ArrayMap<>();
+        map.put("a", 1);
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get("a"));
+    }
+}
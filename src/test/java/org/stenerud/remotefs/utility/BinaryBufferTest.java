@@ -2,6 +2,13 @@ package org.stenerud.remotefs.utility;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
 import static org.junit.Assert.*;
 
 public class BinaryBufferTest {
@@ -264,4 +271,94 @@ public class BinaryBufferTest {
         assertFalse(buffer.equals(bufferNeq3));
         assertFalse(buffer.equals(bufferNeq4));
     }
+
+    @Test
+    public void testDirect() throws Exception {
+        BinaryBuffer buffer = BinaryBuffer.newDirect(10);
+        assertFalse(buffer.hasArray());
+        assertTrue(buffer.isDirect());
+        assertNull(buffer.data);
+        buffer.put(3, (byte)7);
+        BinaryBuffer view = buffer.newView(2, 5);
+        assertTrue(view.isDirect());
+        assertEquals(7, view.get(3));
+        assertEquals(new BinaryBuffer(new byte[] {0, 7, 0}), view);
+        assertEquals(view, new BinaryBuffer(new byte[] {0, 7, 0}));
+
+        BinaryBuffer copy = view.newCopy();
+        assertTrue(copy.hasArray());
+        assertEquals(view, copy);
+
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        view.writeTo(outStream);
+        assertArrayEquals(new byte[] {0, 7, 0}, outStream.toByteArray());
+
+        ByteBuffer byteBuffer = view.asByteBuffer();
+        assertEquals(2, byteBuffer.position());
+        assertEquals(5, byteBuffer.limit());
+    }
+
+    @Test
+    public void testCopyBetweenHeapAndDirect() {
+        BinaryBuffer heap = new BinaryBuffer(new byte[] {1, 2, 3, 4});
+        BinaryBuffer direct = BinaryBuffer.newDirect(6);
+        direct.copyFrom(heap, 1, 2, 3);
+        assertEquals(new BinaryBuffer(new byte[] {0, 0, 2, 3, 4, 0}), direct);
+
+        BinaryBuffer otherDirect = BinaryBuffer.newDirect(3);
+        otherDirect.copyFrom(direct, 2, 0, 3);
+        assertEquals(new BinaryBuffer(new byte[] {2, 3, 4}), otherDirect);
+
+        BinaryBuffer heapCopy = new BinaryBuffer(3);
+        heapCopy.copyFrom(otherDirect, 0, 0, 3);
+        assertEquals(otherDirect, heapCopy);
+
+        byte[] array = new byte[5];
+        direct.copyTo(array, 1, 2, 3);
+        assertArrayEquals(new byte[] {0, 2, 3, 4, 0}, array);
+
+        try {
+            direct.copyTo(array, 0, 4, 3);
+            fail("Expected IndexOutOfBoundsException");
+        } catch(IndexOutOfBoundsException e) {
+            // Expected
+        }
+        try {
+            otherDirect.copyFrom(direct, 2, 1, 3);
+            fail("Expected IndexOutOfBoundsException");
+        } catch(IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testWrapHeapByteBufferSharesArray() {
+        byte[] array = new byte[10];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(array);
+        byteBuffer.position(2).limit(6);
+        BinaryBuffer buffer = BinaryBuffer.wrap(byteBuffer);
+        assertSame(array, buffer.data);
+        assertEquals(2, buffer.startOffset);
+        assertEquals(6, buffer.endOffset);
+    }
+
+    @Test
+    public void testUtf8StringDirect() {
+        byte[] utf8 = "straße".getBytes(StandardCharsets.UTF_8);
+        BinaryBuffer buffer = BinaryBuffer.newDirect(utf8.length);
+        buffer.copyFrom(utf8, 0, 0, utf8.length);
+        assertEquals("straße", buffer.utf8String());
+    }
+
+    @Test
+    public void testMapped() throws Exception {
+        File file = File.createTempFile("binarybuffer", ".bin");
+        file.deleteOnExit();
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            FileChannel channel = randomAccessFile.getChannel()) {
+            BinaryBuffer mapped = BinaryBuffer.map(channel, FileChannel.MapMode.READ_WRITE, 0, 4);
+            mapped.copyFrom(new byte[] {1, 2, 3, 4}, 0, 0, 4);
+            assertEquals(new BinaryBuffer(new byte[] {1, 2, 3, 4}), BinaryBuffer.map(channel, FileChannel.MapMode.READ_ONLY, 0, 4));
+        }
+    }
 }
@@ -0,0 +1,61 @@
+package org.stenerud.remotefs.utility;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CompositeBufferTest {
+    private CompositeBuffer newCompositeBuffer() {
+        byte[] data = new byte[100];
+        for(int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        }
+        return new CompositeBuffer(Arrays.asList(
+                new BinaryBuffer(data, 0, 10),
+                new BinaryBuffer(data, 10, 11),
+                new BinaryBuffer(data, 11, 11),
+                new BinaryBuffer(data, 11, 100)));
+    }
+
+    private BinaryBuffer newExpected() {
+        byte[] data = new byte[100];
+        for(int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        }
+        return new BinaryBuffer(data);
+    }
+
+    @Test
+    public void testNewCopy() {
+        CompositeBuffer buffer = newCompositeBuffer();
+        assertEquals(100, buffer.length);
+        assertEquals(newExpected(), buffer.newCopy());
+    }
+
+    @Test
+    public void testWriteToStream() throws Exception {
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        newCompositeBuffer().writeTo(outStream);
+        assertEquals(newExpected(), new BinaryBuffer(outStream.toByteArray()));
+    }
+
+    @Test
+    public void testWriteToChannel() throws Exception {
+        Path path = Files.createTempFile("composite", ".bin");
+        try {
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                newCompositeBuffer().writeTo(channel);
+            }
+            assertEquals(newExpected(), new BinaryBuffer(Files.readAllBytes(path)));
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.stenerud.remotefs.utility;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class StringCacheTest {
+    @Test
+    public void testHitReturnsSameInstance() {
+        StringCache cache = new StringCache(16);
+        String first = cache.get(utf8("path/to/file"));
+        String second = cache.get(utf8("path/to/file"));
+        assertEquals("path/to/file", first);
+        assertSame(first, second);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testViewIntoLargerBuffer() {
+        StringCache cache = new StringCache(16);
+        byte[] data = "xxkeyxx".getBytes(StandardCharsets.UTF_8);
+        String first = cache.get(new BinaryBuffer(data, 2, 5));
+        data[2] = 'K';
+        String second = cache.get(new BinaryBuffer(data, 2, 5));
+        assertEquals("key", first);
+        assertEquals("Key", second);
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testLongStringsBypassCache() {
+        StringCache cache = new StringCache(16, 4);
+        assertEquals("too long", cache.get(utf8("too long")));
+        assertEquals("too long", cache.get(utf8("too long")));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void testCapacityRoundsUp() {
+        assertEquals(1, new StringCache(1).getCapacity());
+        assertEquals(128, new StringCache(100).getCapacity());
+    }
+
+    private BinaryBuffer utf8(String string) {
+        return new BinaryBuffer(string.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,34 @@
+package org.stenerud.remotefs.utility;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Utf8ToolTest {
+    @Test
+    public void testEncode() {
+        assertEncode("");
+        assertEncode("plain ascii");
+        assertEncode("straße");
+        assertEncode("これは");
+        assertEncode("𩶘 surrogate pair");
+        assertEncode("ascii then ü");
+        assertEncode("unpaired \ud800 high");
+        assertEncode("unpaired \udc00 low");
+        assertEncode("trailing high \ud800");
+        assertEncode("\u007f\u0080߿ࠀ￿");
+    }
+
+    private void assertEncode(String string) {
+        byte[] expected = string.getBytes(StandardCharsets.UTF_8);
+        byte[] actual = new byte[expected.length + 2];
+        int length = Utf8Tool.encode(string, actual, 1);
+        assertEquals(expected.length, length);
+        assertEquals(expected.length, Utf8Tool.getEncodedLength(string));
+        assertArrayEquals(expected, Arrays.copyOfRange(actual, 1, 1 + length));
+    }
+}